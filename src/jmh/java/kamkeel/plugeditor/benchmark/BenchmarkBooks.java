@@ -0,0 +1,84 @@
+package kamkeel.plugeditor.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import kamkeel.plugeditor.book.Book;
+import kamkeel.plugeditor.book.BookLayout;
+
+/**
+ * Deterministic sample text for the benchmarks: words of mixed widths with
+ * the odd color or bold code and paragraph break, about one page per call.
+ */
+public final class BenchmarkBooks {
+    private static final String[] WORDS = {
+        "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "Minecraft", "book", "quill",
+        "written", "page", "line", "ink", "wool", "iron", "golem", "village", "library", "enchanted",
+        "a", "I", "WWW", "illicit", "mmm", "lilies", "\u00a7cred\u00a7r", "\u00a7lbold\u00a7r", "\u00a79blue"
+    };
+
+    private BenchmarkBooks() {
+    }
+
+    /**
+     * Text that fits on one page by both the line and character limits.
+     */
+    static String pageText(Random random) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 180) {
+            if (text.length() > 0)
+                text.append(random.nextInt(12) == 0 ? '\n' : ' ');
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Exactly as many characters as a page can hold.
+     */
+    static String fullPageText(long seed) {
+        Random random = new Random(seed);
+        String text = pageText(random) + " " + pageText(random);
+        return text.substring(0, BookLayout.MAX_CHARS_PER_PAGE);
+    }
+
+    static List<String> pageTexts(int pages, long seed) {
+        Random random = new Random(seed);
+        List<String> texts = new ArrayList<String>(pages);
+        for (int i = 0; i < pages; i++)
+            texts.add(pageText(random));
+        return texts;
+    }
+
+    /**
+     * Builds a book the way the file loaders do, one padded page at a time.
+     */
+    public static Book create(int pages, long seed) {
+        Book book = new Book();
+        book.clear();
+        for (String text : pageTexts(pages, seed)) {
+            if (book.totalPages() > 0)
+                book.padPage(book.totalPages() - 1);
+            book.addText(book.totalPages(), 0, 0, text, true);
+        }
+        return book;
+    }
+
+    /**
+     * Moves an offset back to a character that is neither a line break nor
+     * part of a formatting code, so deleting and re-typing it leaves the
+     * book laid out as before.
+     */
+    static int plainOffset(CharSequence text, int offset) {
+        offset = Math.max(Math.min(offset, text.length() - 1), 0);
+        while (offset > 0 && !isPlain(text, offset))
+            offset--;
+        return offset;
+    }
+
+    private static boolean isPlain(CharSequence text, int offset) {
+        char c = text.charAt(offset);
+        return c != '\n' && c != '\u00a7' && (offset == 0 || text.charAt(offset - 1) != '\u00a7');
+    }
+}
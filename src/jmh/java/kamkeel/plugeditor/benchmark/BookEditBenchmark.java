@@ -0,0 +1,82 @@
+package kamkeel.plugeditor.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import kamkeel.plugeditor.book.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Single keystrokes at the start, middle and end of books of growing size.
+ * Each benchmark undoes its own edit, so every invocation sees the same book;
+ * the reported time covers both halves of the pair.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BookEditBenchmark {
+    public enum Position {
+        START, MIDDLE, END
+    }
+
+    @Param({"1", "10", "50"})
+    public int pages;
+
+    @Param({"START", "MIDDLE", "END"})
+    public Position position;
+
+    private Book book;
+
+    private int offset;
+
+    private String removed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HeadlessFonts.install();
+        this.book = BenchmarkBooks.create(this.pages, 42L);
+        int length = this.book.getText().length();
+        switch (this.position) {
+            case START:
+                this.offset = BenchmarkBooks.plainOffset(this.book.getText(), 0);
+                break;
+            case MIDDLE:
+                this.offset = BenchmarkBooks.plainOffset(this.book.getText(), length / 2);
+                break;
+            default:
+                this.offset = BenchmarkBooks.plainOffset(this.book.getText(), length - 1);
+        }
+        this.removed = String.valueOf(this.book.getText().charAt(this.offset));
+    }
+
+    @Benchmark
+    public Book addTextAtCursor() {
+        this.book.setCursorOffset(this.offset);
+        this.book.addTextAtCursor("e");
+        this.book.removeChar(false);
+        return this.book;
+    }
+
+    @Benchmark
+    public Book removeCharForward() {
+        this.book.setCursorOffset(this.offset);
+        this.book.removeChar(true);
+        this.book.addTextAtCursor(this.removed);
+        return this.book;
+    }
+
+    @Benchmark
+    public Book removeCharBackward() {
+        this.book.setCursorOffset(this.offset + 1);
+        this.book.removeChar(false);
+        this.book.addTextAtCursor(this.removed);
+        return this.book;
+    }
+}
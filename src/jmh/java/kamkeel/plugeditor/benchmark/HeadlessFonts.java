@@ -0,0 +1,107 @@
+package kamkeel.plugeditor.benchmark;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import kamkeel.plugeditor.book.BookController;
+import kamkeel.plugeditor.util.AbstractFontMetrics;
+import kamkeel.plugeditor.util.BitmapFontMetrics;
+import kamkeel.plugeditor.util.FontMetrics;
+import net.minecraft.client.gui.FontRenderer;
+import net.minecraft.client.renderer.texture.TextureManager;
+import net.minecraft.client.settings.GameSettings;
+import net.minecraft.util.ResourceLocation;
+
+/**
+ * Font metrics for benchmarks, which run without a Minecraft client. Glyph
+ * widths are read from the default font files on the classpath, or taken
+ * from a fixed-width stand-in when the client jar does not provide them.
+ */
+public final class HeadlessFonts {
+    private static FontMetrics metrics;
+
+    private static FontRenderer renderer;
+
+    private HeadlessFonts() {
+    }
+
+    /**
+     * Makes the book layout measure with the headless metrics.
+     */
+    public static synchronized FontMetrics install() {
+        if (metrics == null) {
+            try {
+                metrics = BitmapFontMetrics.loadDefault();
+            } catch (IOException e) {
+                System.out.println("[BookEditor] Default font unavailable, benchmarking with fixed-width glyphs: " + e.getMessage());
+                metrics = new FixedWidthMetrics();
+            }
+        }
+        BookController.getInstance().setFontMetrics(metrics);
+        return metrics;
+    }
+
+    /**
+     * A FontRenderer that takes its glyph widths from the headless metrics,
+     * for code that measures through a renderer, such as HexText. Drawing
+     * text does nothing.
+     */
+    public static synchronized FontRenderer renderer() {
+        if (renderer == null)
+            renderer = HeadlessRenderer.create(install());
+        return renderer;
+    }
+
+    private static final class FixedWidthMetrics extends AbstractFontMetrics {
+        @Override
+        protected int charWidth(char c) {
+            if (c == '\u00a7')
+                return -1;
+            if (c == ' ')
+                return 4;
+            return c < ' ' ? 0 : 6;
+        }
+    }
+
+    // The FontRenderer constructor loads the font textures, so instances are
+    // allocated without running it. Glyph widths come from the metrics and
+    // the draw calls, which would need a GL context, are skipped.
+    private static final class HeadlessRenderer extends FontRenderer {
+        private FontMetrics glyphs;
+
+        private HeadlessRenderer(GameSettings settings, ResourceLocation font, TextureManager textures) {
+            super(settings, font, textures, false);
+        }
+
+        static FontRenderer create(FontMetrics glyphs) {
+            HeadlessRenderer renderer;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                Object unsafe = field.get(null);
+                renderer = (HeadlessRenderer) unsafeClass.getMethod("allocateInstance", Class.class).invoke(unsafe, HeadlessRenderer.class);
+            } catch (Exception e) {
+                throw new IllegalStateException("Cannot allocate a headless FontRenderer", e);
+            }
+            renderer.glyphs = glyphs;
+            renderer.FONT_HEIGHT = 9;
+            return renderer;
+        }
+
+        @Override
+        public int getCharWidth(char c) {
+            return this.glyphs.getCharWidth(c);
+        }
+
+        @Override
+        public int drawString(String text, int x, int y, int color) {
+            return x + getStringWidth(text);
+        }
+
+        @Override
+        public int drawStringWithShadow(String text, int x, int y, int color) {
+            return x + getStringWidth(text) + 1;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package kamkeel.plugeditor.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import kamkeel.plugeditor.book.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Pasting 50 copied pages into the middle of a book. The paste is large
+ * enough that rebuilding the book before every invocation does not skew it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InsertPagesBenchmark {
+    @Param({"1", "50"})
+    public int pages;
+
+    private Book original;
+
+    private List<String> pasted;
+
+    private Book book;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HeadlessFonts.install();
+        this.original = BenchmarkBooks.create(this.pages, 42L);
+        this.pasted = BenchmarkBooks.create(50, 7L).copyPages(0, 49);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyBook() {
+        this.book = new Book();
+        this.book.clone(this.original);
+    }
+
+    @Benchmark
+    public Book insertPages() {
+        this.book.insertPages(this.book.totalPages() / 2, this.pasted);
+        return this.book;
+    }
+}
@@ -0,0 +1,119 @@
+package kamkeel.plugeditor.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import kamkeel.plugeditor.FileHandler;
+import kamkeel.plugeditor.book.Book;
+import kamkeel.plugeditor.storage.BookSnapshot;
+import kamkeel.plugeditor.storage.PBKFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Loading large GHB files laid out like saveBookToGHBFile writes them, with
+ * page marker comments and a block comment for the reader to strip, and the
+ * same books as compressed PBK files. The largest files are several
+ * megabytes; time per page should stay flat as the page count grows. Pages
+ * are only laid out once visited, so opening a book and laying out its
+ * middle page should cost little more than reading the file, and reading a
+ * single page of a PBK file should not depend on the page count at all.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoadBookBenchmark {
+    @Param({"50", "500", "5000", "20000"})
+    public int pages;
+
+    @Param({"ghb", "pbk"})
+    public String format;
+
+    private File directory;
+
+    private FileHandler fileHandler;
+
+    private File bookFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        HeadlessFonts.install();
+        this.directory = File.createTempFile("plugbook", "");
+        if (!this.directory.delete() || !this.directory.mkdirs())
+            throw new IOException("Cannot create " + this.directory);
+        this.fileHandler = new FileHandler(this.directory);
+        this.bookFile = new File(this.directory, "benchmark.ghb");
+        if (!this.fileHandler.writeFile(ghbLines(BenchmarkBooks.pageTexts(this.pages, 42L)), this.bookFile))
+            throw new IOException("Cannot write " + this.bookFile);
+        if (this.format.equals("pbk")) {
+            BookSnapshot book = BookSnapshot.of(this.fileHandler.loadBook(this.bookFile));
+            this.bookFile = new File(this.directory, "benchmark" + PBKFile.EXTENSION);
+            OutputStream out = new FileOutputStream(this.bookFile);
+            try {
+                PBKFile.write(book, out, true);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deleteRecursively(this.directory);
+    }
+
+    @Benchmark
+    public Book loadBook() {
+        return this.fileHandler.loadBook(this.bookFile);
+    }
+
+    @Benchmark
+    public String readMiddlePage() throws IOException {
+        if (this.format.equals("pbk")) {
+            PBKFile book = PBKFile.open(this.bookFile);
+            return book.getPage(book.getPageCount() / 2);
+        }
+        Book book = this.fileHandler.loadBook(this.bookFile);
+        return book.getPage(book.totalPages() / 2).asString();
+    }
+
+    private static List<String> ghbLines(List<String> pageTexts) {
+        List<String> lines = new ArrayList<String>();
+        lines.add("//Book written in GHB format for benchmarking");
+        lines.add("title:Benchmark");
+        lines.add("author:PlugEditor");
+        lines.add("/* Generated sample text,");
+        lines.add("   one block comment per file */");
+        lines.add("//=======================================\n");
+        for (int i = 0; i < pageTexts.size(); i++) {
+            lines.add(String.format("/////////// Page %d: ///////////", i + 1));
+            for (String line : pageTexts.get(i).split("\n"))
+                lines.add(line + "##");
+            if (i < pageTexts.size() - 1)
+                lines.add(">>>>\n");
+        }
+        return lines;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteRecursively(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,42 @@
+package kamkeel.plugeditor.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import kamkeel.plugeditor.book.Page;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Page.asString on a full 13-line page, served from the cache and rebuilt
+ * after the page was marked dirty. Run with -prof gc to see the allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PageStringBenchmark {
+    private Page page;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HeadlessFonts.install();
+        // Every page but the last is padded to the full line count
+        this.page = BenchmarkBooks.create(2, 42L).pages.get(0);
+    }
+
+    @Benchmark
+    public String cachedAsString() {
+        return this.page.asString();
+    }
+
+    @Benchmark
+    public String rebuiltAsString() {
+        this.page.markDirty();
+        return this.page.asString();
+    }
+}
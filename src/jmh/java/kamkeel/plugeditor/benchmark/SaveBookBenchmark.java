@@ -0,0 +1,82 @@
+package kamkeel.plugeditor.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import kamkeel.plugeditor.storage.AtomicFileWriter;
+import kamkeel.plugeditor.storage.BookSaver;
+import kamkeel.plugeditor.storage.BookSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Many small saves the way the book saver writes them: a few pages of GHB
+ * through a temporary file moved over the last save. Compares the cost of
+ * forcing each file to the disk against leaving it to the operating system,
+ * which is what the syncWrites option trades for crash safety.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SaveBookBenchmark {
+    // Files saved over in turn, so each save replaces an existing file
+    private static final int FILES = 16;
+
+    @Param({"true", "false"})
+    public boolean sync;
+
+    @Param({"3"})
+    public int pages;
+
+    private File directory;
+
+    private BookSnapshot book;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        HeadlessFonts.install();
+        this.directory = File.createTempFile("plugbook", "");
+        if (!this.directory.delete() || !this.directory.mkdirs())
+            throw new IOException("Cannot create " + this.directory);
+        this.book = BookSnapshot.of(BenchmarkBooks.create(this.pages, 42L));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] children = this.directory.listFiles();
+        if (children != null) {
+            for (File child : children)
+                child.delete();
+        }
+        this.directory.delete();
+    }
+
+    @Benchmark
+    public File saveBook() throws IOException {
+        File file = new File(this.directory, "book" + this.next++ % FILES + ".ghb");
+        AtomicFileWriter atomic = AtomicFileWriter.open(file, this.sync);
+        try {
+            Writer out = new OutputStreamWriter(atomic.getStream(), Charset.defaultCharset());
+            BookSaver.writeGHB(this.book, "2000-01-01", out);
+            out.flush();
+            atomic.commit();
+        } finally {
+            atomic.close();
+        }
+        return file;
+    }
+}
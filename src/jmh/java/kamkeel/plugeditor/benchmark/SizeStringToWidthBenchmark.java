@@ -0,0 +1,53 @@
+package kamkeel.plugeditor.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import kamkeel.plugeditor.book.Line;
+import kamkeel.plugeditor.util.FontRendererPrivate;
+import net.minecraft.client.gui.FontRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Calling the private FontRenderer.sizeStringToWidth on a 255-character
+ * formatted page through the cached MethodHandle and through Method.invoke.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SizeStringToWidthBenchmark {
+    private FontRenderer renderer;
+
+    private Method reflective;
+
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setUp() throws NoSuchMethodException {
+        this.renderer = HeadlessFonts.renderer();
+        try {
+            this.reflective = FontRenderer.class.getDeclaredMethod("sizeStringToWidth", String.class, int.class);
+        } catch (NoSuchMethodException e) {
+            this.reflective = FontRenderer.class.getDeclaredMethod("func_78259_e", String.class, int.class);
+        }
+        this.reflective.setAccessible(true);
+        this.text = BenchmarkBooks.fullPageText(42L);
+    }
+
+    @Benchmark
+    public int methodHandle() {
+        return FontRendererPrivate.callSizeStringToWidth(this.renderer, this.text, Line.BOOK_TEXT_WIDTH);
+    }
+
+    @Benchmark
+    public int reflection() throws Exception {
+        return (Integer) this.reflective.invoke(this.renderer, this.text, Line.BOOK_TEXT_WIDTH);
+    }
+}
@@ -0,0 +1,64 @@
+package kamkeel.plugeditor.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import kamkeel.plugeditor.book.Line;
+import kamkeel.plugeditor.util.BookTextFormatter;
+import kamkeel.plugeditor.util.BookUtils;
+import kamkeel.plugeditor.util.CachingTextFormatter;
+import kamkeel.plugeditor.util.HexTextCompat;
+import kamkeel.plugeditor.util.VanillaFontMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Wrapping a full page of formatted text with the legacy formatter, with
+ * HexText and through the wrap cache. All measure through the same headless
+ * renderer, since HexText only wraps with a FontRenderer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WrapBenchmark {
+    public enum Formatter {
+        BOOK_UTILS, HEXTEXT, CACHED
+    }
+
+    @Param({"BOOK_UTILS", "HEXTEXT", "CACHED"})
+    public Formatter formatter;
+
+    private BookTextFormatter textFormatter;
+
+    private VanillaFontMetrics metrics;
+
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.metrics = new VanillaFontMetrics(HeadlessFonts.renderer());
+        switch (this.formatter) {
+            case HEXTEXT:
+                this.textFormatter = HexTextCompat.INSTANCE;
+                break;
+            case CACHED:
+                this.textFormatter = new CachingTextFormatter(BookUtils.INSTANCE);
+                break;
+            default:
+                this.textFormatter = BookUtils.INSTANCE;
+        }
+        this.text = BenchmarkBooks.fullPageText(42L);
+    }
+
+    @Benchmark
+    public List<String> listFormattedStringToWidth() {
+        return this.textFormatter.listFormattedStringToWidth(this.metrics, this.text, "", Line.BOOK_TEXT_WIDTH);
+    }
+}
@@ -6,25 +6,35 @@ package kamkeel.plugeditor;
  */
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 import kamkeel.plugeditor.book.Book;
 import net.minecraft.client.Minecraft;
 import org.apache.commons.lang3.StringUtils;
-import kamkeel.plugeditor.book.Line;
-import kamkeel.plugeditor.book.Page;
+import kamkeel.plugeditor.storage.AtomicFileWriter;
+import kamkeel.plugeditor.storage.BookIndex;
+import kamkeel.plugeditor.storage.BookSaver;
+import kamkeel.plugeditor.storage.BookSnapshot;
+import kamkeel.plugeditor.storage.DirectoryScanner;
+import kamkeel.plugeditor.storage.DirectorySnapshot;
+import kamkeel.plugeditor.storage.EditJournal;
+import kamkeel.plugeditor.storage.GHBReader;
+import kamkeel.plugeditor.storage.PBKFile;
 
 public class FileHandler {
     private File defaultPath;
@@ -35,15 +45,16 @@ public class FileHandler {
 
     public File currentPath;
 
-    private List<File> lastListing = new ArrayList<File>();
-
-    private String lastCheckedPath = "";
-
     public FileHandler() {
-        String path = (Minecraft.getMinecraft()).mcDataDir.getAbsolutePath();
-        if (path.endsWith("."))
-            path = path.substring(0, path.length() - 2);
-        this.defaultPath = new File(path, "mods" + File.separator + "PlugBook");
+        this(new File(getMinecraftDir(), "mods" + File.separator + "PlugBook"));
+    }
+
+    /**
+     * Creates a handler that keeps its books and signatures under the given
+     * directory instead of the game's mods/PlugBook folder.
+     */
+    public FileHandler(File defaultPath) {
+        this.defaultPath = defaultPath;
         if (!this.defaultPath.exists())
             this.defaultPath.mkdirs();
         this.bookSavePath = new File(this.defaultPath, "SavedBooks");
@@ -54,6 +65,13 @@ public class FileHandler {
             this.signaturePath.mkdirs();
     }
 
+    private static String getMinecraftDir() {
+        String path = (Minecraft.getMinecraft()).mcDataDir.getAbsolutePath();
+        if (path.endsWith("."))
+            path = path.substring(0, path.length() - 2);
+        return path;
+    }
+
     public List<File> getValidRoots() {
         List<File> outList = new ArrayList<File>();
         for (File root : File.listRoots()) {
@@ -71,24 +89,12 @@ public class FileHandler {
         this.currentPath = this.currentPath.getParentFile();
     }
 
-    public List<File> listFiles(File path) {
-        if (!path.getAbsolutePath().equals(this.lastCheckedPath)) {
-            this.lastCheckedPath = path.getAbsolutePath();
-            this.lastListing.clear();
-            File[] newList = path.listFiles();
-            if (newList == null)
-                newList = new File[0];
-            List<File> files = new ArrayList<File>();
-            for (File f : newList) {
-                if (f.isDirectory()) {
-                    this.lastListing.add(f);
-                } else {
-                    files.add(f);
-                }
-            }
-            this.lastListing.addAll(files);
-        }
-        return this.lastListing;
+    /**
+     * Latest listing of the given directory. The directory is scanned in the
+     * background, so a directory asked for the first time lists as loading.
+     */
+    public DirectorySnapshot listFiles(File path) {
+        return DirectoryScanner.getInstance().getSnapshot(path);
     }
 
     public File getDefaultPath() {
@@ -99,6 +105,26 @@ public class FileHandler {
         return this.signaturePath;
     }
 
+    public File getBookSavePath() {
+        return this.bookSavePath;
+    }
+
+    /**
+     * Metadata of the books in the SavedBooks folder, kept in an index file
+     * next to it.
+     */
+    public BookIndex getBookIndex() {
+        return BookIndex.open(new File(this.defaultPath, "bookindex.dat"), this.bookSavePath);
+    }
+
+    /**
+     * Journal of the edits to the book open in the editor, kept until the
+     * editor closes.
+     */
+    public EditJournal getEditJournal() {
+        return EditJournal.open(new File(this.defaultPath, "edits.journal"));
+    }
+
     public Book loadBook(File filePath) {
         if (filePath.getName().endsWith(".txt")) {
             System.out.println("Loading bookworm book...");
@@ -108,50 +134,62 @@ public class FileHandler {
             System.out.println("Loading GHB book..." + filePath);
             return loadBookFromGHBFile(filePath);
         }
+        if (filePath.getName().endsWith(PBKFile.EXTENSION)) {
+            System.out.println("Loading PBK book..." + filePath);
+            return loadBookFromPBKFile(filePath);
+        }
         return null;
     }
 
     private Book loadBookwormBook(File filePath) {
-        List<String> f = readFile(filePath);
-        if (f.size() >= 4 && StringUtils.isNumeric(f.get(0))) {
+        return bookwormBook(readFile(filePath));
+    }
+
+    /**
+     * Parses the lines of a Bookworm book, or returns null when they are not
+     * one.
+     */
+    public static Book bookwormBook(List<String> f) {
+        if (f != null && f.size() >= 4 && StringUtils.isNumeric(f.get(0))) {
             Book loadedBook = new Book();
             loadedBook.clear();
             loadedBook.title = Book.truncateStringChars(f.get(1), "..", 16, false);
             loadedBook.author = Book.truncateStringChars(f.get(2), "..", 16, false);
             String bookText = f.get(f.size() - 1);
             String[] largePages = bookText.split("(\\s::){2,}");
-            for (String largePage : largePages) {
-                if (loadedBook.totalPages() > 0) {
-                    Page currPage = loadedBook.pages.get(loadedBook.totalPages() - 1);
-                    if (!currPage.asString().isEmpty())
-                        currPage = Page.pad(currPage);
-                }
-                loadedBook.addText(loadedBook.totalPages(), 0, 0, largePage.replaceAll("\\s*::\\s*", "\n  "), true);
-            }
+            for (String largePage : largePages)
+                loadedBook.appendPage(largePage.replaceAll("\\s*::\\s*", "\n  "));
             return loadedBook;
         }
         return null;
     }
 
     public List<String> readFile(File path) {
-        BufferedReader br;
-        List<String> out = new ArrayList<String>();
         try {
-            br = new BufferedReader(new FileReader(path));
+            return readLines(path);
         } catch (FileNotFoundException e) {
-            Printer.gamePrint(Printer.RED + "File not found! " + path.getAbsolutePath());
+            Printer.queuePrint(Printer.RED + "File not found! " + path.getAbsolutePath());
+            return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            Printer.queuePrint(Printer.RED + "Error reading file! " + path.getAbsolutePath());
             return null;
         }
+    }
+
+    /**
+     * Reads the lines of a text file, fixing section signs that were saved
+     * in the wrong encoding.
+     */
+    public static List<String> readLines(File path) throws IOException {
+        List<String> out = new ArrayList<String>();
+        BufferedReader br = new BufferedReader(new FileReader(path));
         try {
             String line = br.readLine();
             while (line != null) {
                 out.add(line.replace("Â\u00a7", "\u00a7"));
                 line = br.readLine();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            Printer.gamePrint(Printer.RED + "Error reading file! " + path.getAbsolutePath());
-            return null;
         } finally {
             try {
                 br.close();
@@ -170,10 +208,18 @@ public class FileHandler {
             failedFlag = true;
         if (!failedFlag)
             try {
-                PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(filePath)));
-                for (String s : toWrite)
-                    out.println(s);
-                out.close();
+                AtomicFileWriter atomic = AtomicFileWriter.open(filePath);
+                try {
+                    PrintWriter out = new PrintWriter(new OutputStreamWriter(atomic.getStream(), Charset.defaultCharset()));
+                    for (String s : toWrite)
+                        out.println(s);
+                    out.flush();
+                    if (out.checkError())
+                        throw new IOException("Cannot write " + filePath);
+                    atomic.commit();
+                } finally {
+                    atomic.close();
+                }
             } catch (IOException e) {
                 failedFlag = true;
                 System.out.println("PlugBook: Write failed!");
@@ -187,86 +233,99 @@ public class FileHandler {
         return true;
     }
 
+    private Book loadBookFromPBKFile(File filePath) {
+        if (!filePath.isFile()) {
+            Printer.queuePrint(Printer.RED + "File not found! " + filePath.getAbsolutePath());
+            return null;
+        }
+        try {
+            return PBKFile.open(filePath).toBook();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Printer.queuePrint(Printer.RED + "Error reading file! " + filePath.getAbsolutePath());
+            return null;
+        }
+    }
+
     public static String cleanGHBString(String strIn) {
-        strIn = strIn.replaceAll("(?s)//.*?((\\n)|(\\r\\n)|(\\Z))", "\n");
-        strIn = strIn.replaceAll("(?s)((/\\*).*?((\\*/)|(\\Z)))|(((/\\*)|(\\A)).*?(\\*/))", "");
-        strIn = strIn.replaceAll("[\\t\\r\\n ]+(##|>>>>)", "$1");
-        strIn = strIn.replaceAll("[\\r\\n]", "");
-        return strIn;
+        return GHBReader.clean(strIn);
     }
 
     private Book loadBookFromGHBFile(File filePath) {
-        Book loadedBook = new Book();
-        loadedBook.clear();
-        List<String> rawFile = readFile(filePath);
-        if (rawFile == null || rawFile.isEmpty())
+        Reader reader;
+        try {
+            reader = new FileReader(filePath);
+        } catch (FileNotFoundException e) {
+            Printer.queuePrint(Printer.RED + "File not found! " + filePath.getAbsolutePath());
             return null;
-        String concatFile = "";
-        for (String line : rawFile) {
-            if (line.toLowerCase().startsWith("title:") && loadedBook.title.isEmpty()) {
-                if (line.length() >= 7) {
-                    loadedBook.title = Book.truncateStringChars(cleanGHBString(line.substring(6)).trim(), "..", 16, false);
-                    if (line.contains("/*"))
-                        concatFile = concatFile + line.substring(line.indexOf("/*")) + "\n";
-                }
-                continue;
-            }
-            if (line.toLowerCase().startsWith("author:") && loadedBook.author.isEmpty()) {
-                if (line.length() >= 8) {
-                    loadedBook.author = Book.truncateStringChars(cleanGHBString(line.substring(7)).trim(), "..", 16, false);
-                    if (line.contains("/*"))
-                        concatFile = concatFile + line.substring(line.indexOf("/*")) + "\n";
-                }
-                continue;
-            }
-            concatFile = concatFile + line + "\n";
         }
-        concatFile = cleanGHBString(concatFile);
-        concatFile = concatFile.replaceAll("##", "\n");
-        String[] pageBroken = concatFile.split(">>>>");
-        for (String largePage : pageBroken) {
-            if (loadedBook.totalPages() > 0) {
-                Page currPage = loadedBook.pages.get(loadedBook.totalPages() - 1);
-                if (!currPage.asString().isEmpty())
-                    currPage = Page.pad(currPage);
+        try {
+            return GHBReader.read(reader);
+        } catch (IOException e) {
+            e.printStackTrace();
+            Printer.queuePrint(Printer.RED + "Error reading file! " + filePath.getAbsolutePath());
+            return null;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-            loadedBook.addText(loadedBook.totalPages(), 0, 0, largePage, true);
         }
-        return loadedBook;
     }
 
-    public boolean saveBookToGHBFile(Book book) {
+    /**
+     * Saves the book to a new GHB file in the SavedBooks folder without
+     * blocking: the book is copied here and written on the saver's I/O
+     * thread, which reports in chat when it is done.
+     */
+    public CompletableFuture<File> saveBookToGHBFile(Book book) {
         Printer.gamePrint(Printer.GRAY + "Saving book to file...");
-        List<String> toWrite = new ArrayList<String>();
+        return saveBookToGHBFile(BookSnapshot.of(book));
+    }
+
+    /**
+     * Saves a snapshot of a book like {@link #saveBookToGHBFile(Book)}, from
+     * any thread.
+     */
+    public CompletableFuture<File> saveBookToGHBFile(BookSnapshot snapshot) {
+        return saveBook(snapshot, ".ghb");
+    }
+
+    /**
+     * Saves a snapshot of a book to a new file in the compact binary PBK
+     * format in the SavedBooks folder, from any thread.
+     */
+    public CompletableFuture<File> saveBookToPBKFile(BookSnapshot snapshot) {
+        return saveBook(snapshot, PBKFile.EXTENSION);
+    }
+
+    private CompletableFuture<File> saveBook(final BookSnapshot snapshot, String extension) {
         String utcTime = getUTCString();
-        toWrite.add("//Book saved in GHB format at " + utcTime);
-        if (!book.title.isEmpty())
-            toWrite.add("title:" + book.title);
-        if (!book.author.isEmpty())
-            toWrite.add("author:" + book.author);
-        toWrite.add("//=======================================\n");
-        String pageMarker = "/////////// Page %d: ///////////";
-        for (int i = 0; i < book.totalPages(); i++) {
-            toWrite.add(String.format(pageMarker, new Object[]{Integer.valueOf(i + 1)}));
-            for (Line line : ((Page) book.pages.get(i)).lines)
-                toWrite.add(line.text.replaceAll("\n", "##"));
-            if (i < book.totalPages() - 1)
-                toWrite.add(">>>>\n");
-        }
-        String title = book.title.trim().replaceAll(" ", ".").replaceAll("[^a-zA-Z0-9\\.]", "");
-        String author = book.author.trim().replaceAll(" ", ".").replaceAll("[^a-zA-Z0-9\\.]", "");
+        String title = snapshot.getTitle().trim().replaceAll(" ", ".").replaceAll("[^a-zA-Z0-9\\.]", "");
+        String author = snapshot.getAuthor().trim().replaceAll(" ", ".").replaceAll("[^a-zA-Z0-9\\.]", "");
         if (title.isEmpty()) {
             title = "notitle";
             if (author.isEmpty())
                 author = "noauthor";
         }
-        File saveFile = new File(this.bookSavePath, title + "_" + author + "_" + utcTime + ".ghb");
-        if (writeFile(toWrite, saveFile)) {
-            Printer.gamePrint(Printer.GREEN + "Book saved to: " + saveFile);
-            return true;
-        }
-        Printer.gamePrint(Printer.RED + "WRITING BOOK TO DISK FAILED!");
-        return false;
+        final File saveFile = new File(this.bookSavePath, title + "_" + author + "_" + utcTime + extension);
+        final BookIndex bookIndex = getBookIndex();
+        CompletableFuture<File> saved = BookSaver.getInstance().save(snapshot, saveFile, utcTime);
+        saved.whenComplete(new BiConsumer<File, Throwable>() {
+            @Override
+            public void accept(File file, Throwable failure) {
+                if (failure != null) {
+                    System.out.println("PlugBook: Write failed!");
+                    System.out.println(failure.getCause() != null ? failure.getCause().getMessage() : failure.getMessage());
+                    Printer.queuePrint(Printer.RED + "WRITING BOOK TO DISK FAILED!");
+                    return;
+                }
+                bookIndex.update(file, snapshot);
+                Printer.queuePrint(Printer.GREEN + "Book saved to: " + file);
+            }
+        });
+        return saved;
     }
 
     public String getUTCString() {
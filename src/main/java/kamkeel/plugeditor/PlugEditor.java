@@ -12,14 +12,20 @@ import cpw.mods.fml.common.event.FMLPreInitializationEvent;
 import cpw.mods.fml.common.eventhandler.SubscribeEvent;
 import cpw.mods.fml.common.gameevent.TickEvent;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
 import kamkeel.plugeditor.book.Book;
 import kamkeel.plugeditor.book.BookController;
+import kamkeel.plugeditor.storage.AtomicFileWriter;
+import kamkeel.plugeditor.util.GlyphWidths;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiScreen;
+import net.minecraft.client.resources.IReloadableResourceManager;
+import net.minecraft.client.resources.IResourceManager;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.common.config.Configuration;
 import kamkeel.plugeditor.gui.GuiPlugBook;
 
 import static kamkeel.plugeditor.PlugEditor.*;
@@ -53,12 +59,28 @@ public class PlugEditor {
 
     @Mod.EventHandler
     public void preInit(FMLPreInitializationEvent event) {
+        loadConfig(event.getSuggestedConfigurationFile());
         BookController.getInstance().preInit();
+        IResourceManager resourceManager = this.mc.getResourceManager();
+        if (resourceManager instanceof IReloadableResourceManager) {
+            ((IReloadableResourceManager) resourceManager).registerReloadListener(GlyphWidths.INSTANCE);
+            ((IReloadableResourceManager) resourceManager).registerReloadListener(BookController.getInstance());
+        }
+    }
+
+    private void loadConfig(File file) {
+        Configuration config = new Configuration(file);
+        config.load();
+        AtomicFileWriter.setSyncWrites(config.getBoolean("syncWrites", Configuration.CATEGORY_GENERAL, true,
+                "Force saved books to the disk before they replace the old file. Slower, but keeps them through a power loss."));
+        if (config.hasChanged())
+            config.save();
     }
 
     @SubscribeEvent
     public void tick(TickEvent.PlayerTickEvent event) {
         if (event.phase == TickEvent.Phase.START) {
+            Printer.printQueued();
             if (this.mc.currentScreen instanceof net.minecraft.client.gui.GuiScreenBook)
                 this.mc.displayGuiScreen((GuiScreen) new GuiPlugBook(this.bookClipboard, this.pageClipboard));
             if (!this.firstGuiOpen &&
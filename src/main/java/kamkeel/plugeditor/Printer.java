@@ -6,6 +6,9 @@ package kamkeel.plugeditor;
  * convenience.
  */
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import net.minecraft.client.Minecraft;
 import net.minecraft.util.ChatComponentText;
 import net.minecraft.util.EnumChatFormatting;
@@ -56,7 +59,28 @@ public class Printer {
 
     public static final EnumChatFormatting RESET = EnumChatFormatting.RESET;
 
+    // Messages from background threads, printed on the next client tick
+    private static final Queue<String> QUEUED = new ConcurrentLinkedQueue<String>();
+
     public static void gamePrint(String inStr) {
         (Minecraft.getMinecraft()).thePlayer.addChatMessage((IChatComponent) new ChatComponentText(inStr));
     }
+
+    /**
+     * Prints a message from any thread. Chat may only be touched on the
+     * client thread, so the message waits for its next tick.
+     */
+    public static void queuePrint(String inStr) {
+        QUEUED.add(inStr);
+    }
+
+    /**
+     * Prints the queued messages. Called on the client thread every tick.
+     */
+    public static void printQueued() {
+        if ((Minecraft.getMinecraft()).thePlayer == null)
+            return;
+        for (String message = QUEUED.poll(); message != null; message = QUEUED.poll())
+            gamePrint(message);
+    }
 }
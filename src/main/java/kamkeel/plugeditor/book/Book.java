@@ -4,6 +4,10 @@ package kamkeel.plugeditor.book;
  * Core data model representing a writable Minecraft book. The Book manages
  * pages, lines, cursor position and serialization to and from Minecraft's NBT
  * format. All editing operations funnel through this class.
+ * <p>
+ * Pages read from saved books are kept as their text until they are visited
+ * or edited, see {@link #getPage(int)}, so opening a long book does not wrap
+ * every page up front.
  */
 
 import io.netty.buffer.ByteBuf;
@@ -13,7 +17,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 import net.minecraft.client.Minecraft;
-import net.minecraft.client.gui.FontRenderer;
 import net.minecraft.init.Items;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTBase;
@@ -26,6 +29,7 @@ import net.minecraft.network.play.client.C17PacketCustomPayload;
 import kamkeel.plugeditor.FileHandler;
 import kamkeel.plugeditor.Printer;
 import kamkeel.plugeditor.util.BookTextFormatter;
+import kamkeel.plugeditor.util.FontMetrics;
 import kamkeel.plugeditor.util.MinecraftBookUtil;
 
 public class Book {
@@ -37,6 +41,10 @@ public class Book {
 
     public List<Page> pages = new ArrayList<Page>();
 
+    private final PieceTable text = new PieceTable();
+
+    private final OffsetIndex index = new OffsetIndex();
+
     public String title = "";
 
     public String author = "";
@@ -45,6 +53,38 @@ public class Book {
         UP, DOWN, LEFT, RIGHT;
     }
 
+    /**
+     * Told about every change to the book's text and pages, in the terms of
+     * the public method that makes the same change again. Formatting buttons
+     * and typing both arrive as inserted text.
+     */
+    public interface EditListener {
+        void textInserted(int offset, String text);
+
+        void textRemoved(int start, int end);
+
+        void pagesInserted(int index, List<String> newPages);
+
+        void pagesCut(int firstPage, int lastPage);
+
+        void pageRemoved(int pageNum);
+
+        void pageAdded();
+
+        /**
+         * A page held as text was laid out, which pads it and may add the
+         * pages its text continues on.
+         */
+        void pageLaidOut(int pageNum);
+
+        /**
+         * The whole book was replaced, by a paste or a loaded book.
+         */
+        void bookReplaced();
+    }
+
+    private EditListener editListener;
+
     public int cursorPage = 0;
 
     public int cursorLine = 0;
@@ -55,8 +95,158 @@ public class Book {
         return this.pages.size();
     }
 
+    public void setEditListener(EditListener editListener) {
+        this.editListener = editListener;
+    }
+
+    public PieceTable getText() {
+        return this.text;
+    }
+
+    public int getPageStart(int pageNum) {
+        return index().pageStart(Math.max(pageNum, 0));
+    }
+
+    public int getLineStart(int pageNum, int lineNum) {
+        pageNum = Math.max(pageNum, 0);
+        if (pageNum < this.pages.size())
+            getPage(pageNum);
+        return index().lineStart(pageNum, lineNum);
+    }
+
+    /**
+     * Returns the page holding the given text offset. An offset on a page
+     * boundary belongs to the earlier page.
+     */
+    public int getPageAt(int offset) {
+        return index().pageAt(offset);
+    }
+
+    /**
+     * Returns the line of the given page holding the given text offset. An
+     * offset on a line boundary belongs to the earlier line.
+     */
+    public int getLineAt(int pageNum, int offset) {
+        getPage(pageNum);
+        OffsetIndex offsets = index();
+        return offsets.lineAt(pageNum, offset - offsets.pageStart(pageNum));
+    }
+
+    public int getCursorOffset() {
+        return getLineStart(this.cursorPage, this.cursorLine) + this.cursorPosChars;
+    }
+
+    /**
+     * Returns the page, laying it out first if it is still held as the text
+     * it was read with. Laying a page out pads it like the pages it was
+     * loaded after, unless it is the last page, and text that does not fit
+     * continues on new pages after it.
+     */
+    public Page getPage(int pageNum) {
+        Page page = this.pages.get(pageNum);
+        if (!page.isLaidOut())
+            layOutPage(pageNum, getPageStart(pageNum));
+        return page;
+    }
+
+    /**
+     * Lays out a page held as text whose text starts at the given offset.
+     * Also called by the layout when an edit flows into such a page, before
+     * the offset index has caught up with the edit.
+     */
+    void layOutPage(int pageNum, int pageStart) {
+        String pageText = this.pages.get(pageNum).asString();
+        int laidOut = 0;
+        int lastPage = pageNum;
+        Page page = this.pages.get(pageNum);
+        while (true) {
+            page.setLines(BookLayout.layoutPage(pageText.substring(laidOut)));
+            laidOut += page.charCount();
+            if (laidOut >= pageText.length())
+                break;
+            // The rest continues on a page of its own, as the layout would put it
+            page = new Page();
+            this.pages.add(++lastPage, page);
+        }
+        if (lastPage > pageNum) {
+            this.index.invalidate();
+            if (this.cursorPage > pageNum)
+                this.cursorPage += lastPage - pageNum;
+        } else {
+            pageChanged(pageNum);
+        }
+        if (lastPage < this.pages.size() - 1)
+            padPage(lastPage, page, pageStart + laidOut - page.charCount());
+        if (this.editListener != null)
+            this.editListener.pageLaidOut(pageNum);
+    }
+
+    /**
+     * Lays out the pages held as text that an edit between the two offsets
+     * touches, before the text changes under them. Returns the end offset
+     * moved past the padding this added inside the range.
+     */
+    private int layOutPages(int start, int end) {
+        if (this.pages.isEmpty())
+            return end;
+        int pageNum = editPageAt(start);
+        do {
+            int lastPage = getPageAt(end);
+            if (!this.pages.get(pageNum).isLaidOut()) {
+                int length = this.text.length();
+                layOutPage(pageNum, getPageStart(pageNum));
+                if (pageNum < lastPage)
+                    end += this.text.length() - length;
+            }
+            pageNum++;
+        } while (pageNum < this.pages.size() && pageNum <= getPageAt(end));
+        return end;
+    }
+
+    /**
+     * Returns the page an edit at the given offset goes to. Unlike
+     * {@link #getPageAt(int)}, an offset at the end of a page held as text
+     * belongs to the page after it, since that page break stays put.
+     */
+    private int editPageAt(int offset) {
+        int pageNum = getPageAt(offset);
+        while (pageNum + 1 < this.pages.size() && !this.pages.get(pageNum).isLaidOut() && getPageStart(pageNum + 1) == offset)
+            pageNum++;
+        return pageNum;
+    }
+
+    /**
+     * Tells the offset index that the lines of a page changed in place.
+     */
+    void pageChanged(int pageNum) {
+        if (this.index.isValidFor(this.pages))
+            this.index.update(pageNum, this.pages.get(pageNum));
+    }
+
+    /**
+     * Tells the offset index that pages were added or removed at the end of
+     * the book and that the given pages before them changed in place.
+     */
+    void pagesChanged(int firstChanged, int lastChanged) {
+        if (!this.index.isValid())
+            return;
+        int kept = Math.min(this.index.size(), this.pages.size());
+        for (int i = firstChanged; i <= lastChanged && i < kept; i++)
+            this.index.update(i, this.pages.get(i));
+        this.index.resize(this.pages);
+    }
+
+    // Pages may also be added from outside, which the size check catches
+    private OffsetIndex index() {
+        if (!this.index.isValidFor(this.pages))
+            this.index.rebuild(this.pages);
+        return this.index;
+    }
+
     public void clear() {
         this.pages.clear();
+        this.text.clear();
+        this.index.invalidate();
         this.title = "";
         this.author = "";
         this.cursorPage = 0;
@@ -68,7 +258,12 @@ public class Book {
         clear();
         this.title = inBook.title;
         this.author = inBook.author;
+        this.text.reset(inBook.text);
         for (Page inPage : inBook.pages) {
+            if (!inPage.isLaidOut()) {
+                this.pages.add(new Page(inPage.asString()));
+                continue;
+            }
             this.pages.add(new Page());
             Page currPage = this.pages.get(this.pages.size() - 1);
             currPage.clear();
@@ -76,9 +271,13 @@ public class Book {
                 currPage.lines.add(new Line());
                 Line currLine = currPage.lines.get(currPage.lines.size() - 1);
                 currLine.text = inLine.text;
-                currLine.wrappedFormatting = inLine.wrappedFormatting;
+                currLine.setFormatting(inLine.getFormatting());
             }
+            currPage.markDirty();
         }
+        this.index.invalidate();
+        if (this.editListener != null)
+            this.editListener.bookReplaced();
     }
 
     public void dump() {
@@ -98,16 +297,21 @@ public class Book {
         if (firstPage < 0)
             firstPage = 0;
         if (lastPage >= this.pages.size())
-            lastPage = this.pages.size();
+            lastPage = this.pages.size() - 1;
         List<String> cutPages = copyPages(firstPage, lastPage);
+        int cutStart = getPageStart(firstPage);
+        this.text.delete(cutStart, getPageStart(lastPage + 1));
         for (int i = lastPage; i >= firstPage; i--)
             this.pages.remove(i);
         if (this.pages.isEmpty())
             this.pages.add(new Page());
+        this.index.invalidate();
         this.cursorLine = 0;
         this.cursorPosChars = 0;
         if (this.cursorPage > this.pages.size() - 1)
             this.cursorPage = this.pages.size() - 1;
+        if (this.editListener != null)
+            this.editListener.pagesCut(firstPage, lastPage);
         return cutPages;
     }
 
@@ -120,7 +324,7 @@ public class Book {
         if (firstPage < 0)
             firstPage = 0;
         if (lastPage >= this.pages.size())
-            lastPage = this.pages.size();
+            lastPage = this.pages.size() - 1;
         List<String> copiedPages = new ArrayList<String>();
         for (int i = firstPage; i <= lastPage; i++)
             copiedPages.add(((Page) this.pages.get(i)).asString());
@@ -132,21 +336,26 @@ public class Book {
             index = 0;
         if (index > this.pages.size())
             index = this.pages.size();
+        if (this.editListener != null)
+            this.editListener.pagesInserted(index, newPages);
         int offset = 0;
+        int insertAt = getPageStart(index);
+        // Each page is laid out once it is visited
         for (String pageText : newPages) {
-            Page tempPage = new Page();
-            tempPage.addText(0, 0, pageText);
-            this.pages.add(index + offset, Page.pad(tempPage));
+            this.pages.add(index + offset, new Page(pageText));
+            this.text.insert(insertAt, pageText);
+            insertAt += pageText.length();
             offset++;
         }
+        this.index.invalidate();
         this.cursorLine = 0;
         this.cursorPosChars = 0;
     }
 
     public void removeChar(boolean nextChar) {
         // Retrieve current line
-        Line currLine = this.pages.get(this.cursorPage).lines.get(this.cursorLine);
-        BookTextFormatter formatter = BookController.getInstance().getTextFormatter();
+        Line currLine = getPage(this.cursorPage).lines.get(this.cursorLine);
+        CodeSpans codes = currLine.getCodeSpans();
 
         if (nextChar) {
             // =============================
@@ -158,7 +367,7 @@ public class Book {
 
                 // Scan forward to delete any formatting codes.
                 while (removeEnd < currLine.text.length()) {
-                    int codeLength = formatter.detectColorCodeLength(currLine.text, removeEnd);
+                    int codeLength = codes.codeLengthAt(removeEnd);
                     if (codeLength > 0) {
                         removeEnd += codeLength;
                         removedFormatting = true;
@@ -188,7 +397,7 @@ public class Book {
             } else if (this.cursorPage + 1 < this.pages.size()) {
                 Page nextPage = this.pages.get(this.cursorPage + 1);
                 if (nextPage.asString().isEmpty()) {
-                    this.pages.remove(this.cursorPage + 1);
+                    removePage(this.cursorPage + 1);
                 } else {
                     removeText(this.cursorPage, this.cursorLine, this.cursorPosChars,
                         this.cursorPage + 1, 0, 1);
@@ -204,7 +413,7 @@ public class Book {
                 boolean removedAny = false;
 
                 while (removeStart > 0) {
-                    int codeStart = formatter.findColorCodeStart(currLine.text, removeStart);
+                    int codeStart = codes.codeStartBefore(removeStart);
                     if (codeStart >= 0) {
                         removedAny = true;
                         removeStart = codeStart;
@@ -236,6 +445,8 @@ public class Book {
             }
             else if (this.cursorPage > 0) {
                 // Backspace at the start of the first line in the page: join with previous page
+                getPage(this.cursorPage - 1);
+                // Laying it out may have added pages before the cursor
                 Page currPage = this.pages.get(this.cursorPage - 1);
                 int lineNum = currPage.lines.size() - 1;
                 currLine = currPage.lines.get(lineNum);
@@ -259,6 +470,13 @@ public class Book {
             toPage = this.pages.size() - 1;
         if (toPage < fromPage)
             toPage = fromPage;
+        for (int i = fromPage; i <= toPage; i++) {
+            int pageCount = this.pages.size();
+            getPage(i);
+            // Pages added before the last one move it along
+            if (i < toPage)
+                toPage += this.pages.size() - pageCount;
+        }
         Page currPage = this.pages.get(toPage);
         if (toLine >= currPage.lines.size())
             toLine = currPage.lines.size() - 1;
@@ -269,27 +487,79 @@ public class Book {
             toChar = currLine.text.length();
         if (toChar < fromChar && toLine == fromLine && toPage == fromPage)
             return;
-        String moveText = currLine.text.substring(toChar);
-        int linePos = toLine;
-        while (linePos++ < currPage.lines.size() - 1)
-            moveText = moveText + ((Line) currPage.lines.get(linePos)).text;
-        int pagePos = toPage;
-        while (pagePos++ < this.pages.size() - 1)
-            moveText = moveText + ((Page) this.pages.get(pagePos)).asString();
-        pagePos = this.pages.size() - 1;
-        while (pagePos > fromPage) {
-            this.pages.remove(pagePos);
-            pagePos--;
+        int start = getLineStart(fromPage, fromLine) + fromChar;
+        int end = getLineStart(toPage, toLine) + toChar;
+        if (end < start)
+            return;
+        // Pages left empty by the removed range disappear along with it
+        for (int i = toPage; i > fromPage; i--) {
+            if (this.pages.get(i).charCount() == 0 && this.pages.size() > 1)
+                removePage(i);
         }
-        currPage = this.pages.get(fromPage);
-        linePos = currPage.lines.size() - 1;
-        while (linePos > fromLine) {
-            currPage.lines.remove(linePos);
-            linePos--;
+        removeText(start, end);
+    }
+
+    /**
+     * Removes the text between two offsets of the book's text.
+     */
+    public void removeText(int start, int end) {
+        end = layOutPages(start, end);
+        this.text.delete(start, end);
+        editText(start, end, start, start);
+        if (this.editListener != null)
+            this.editListener.textRemoved(start, end);
+    }
+
+    /**
+     * Removes a page along with its text. The pages after it keep their
+     * lines, so this is for pages whose text wraps nothing after them, such
+     * as empty pages; removeText lays out what follows a removed range.
+     */
+    public void removePage(int pageNum) {
+        int pageStart = getPageStart(pageNum);
+        this.text.delete(pageStart, pageStart + this.pages.get(pageNum).charCount());
+        this.pages.remove(pageNum);
+        this.index.invalidate();
+        if (this.editListener != null)
+            this.editListener.pageRemoved(pageNum);
+    }
+
+    /**
+     * Adds a page holding the given text at the end of the book, the way
+     * saved books are read back. The page is kept as text until it is laid
+     * out. A laid out page before it is padded, and an empty one is replaced
+     * by it; empty text adds no page to a book that has one.
+     */
+    public void appendPage(String pageText) {
+        int lastPage = totalPages() - 1;
+        if (lastPage >= 0) {
+            Page page = this.pages.get(lastPage);
+            if (page.isEmpty()) {
+                this.pages.remove(lastPage);
+            } else {
+                if (page.isLaidOut())
+                    padPage(lastPage);
+                if (pageText.isEmpty())
+                    return;
+            }
         }
-        currLine = currPage.lines.get(fromLine);
-        currLine.text = currLine.text.substring(0, fromChar);
-        addText(fromPage, fromLine, fromChar, moveText, false);
+        this.pages.add(new Page(pageText));
+        this.text.insert(this.text.length(), pageText);
+        pagesChanged(this.pages.size() - 1, this.pages.size() - 1);
+    }
+
+    /**
+     * Pads the last page and adds an empty page after it.
+     */
+    public void addPage() {
+        // Laying out a last page held as text can continue it on new pages,
+        // and the padding goes on whichever page is last after that
+        getPage(this.pages.size() - 1);
+        padPage(this.pages.size() - 1);
+        this.pages.add(new Page());
+        this.index.invalidate();
+        if (this.editListener != null)
+            this.editListener.pageAdded();
     }
 
     public void addTextAtCursor(String strAdd) {
@@ -297,64 +567,58 @@ public class Book {
     }
 
     public void addText(int pageNum, int lineNum, int charPos, String strAdd, boolean setCursorAfterInsertedText) {
-        if (pageNum > totalPages()) {
-            pageNum = totalPages();
-        } else if (pageNum < 0) {
-            pageNum = 0;
+        if (this.pages.isEmpty())
+            this.pages.add(new Page());
+        int offset;
+        if (pageNum >= totalPages()) {
+            offset = this.text.length();
+        } else {
+            if (pageNum < 0)
+                pageNum = 0;
+            offset = getLineStart(pageNum, lineNum) + charPos;
         }
-        if (pageNum == totalPages())
+        addText(offset, strAdd, setCursorAfterInsertedText);
+    }
+
+    /**
+     * Inserts text at an offset of the book's text.
+     */
+    public void addText(int offset, String strAdd, boolean setCursorAfterInsertedText) {
+        if (this.pages.isEmpty())
             this.pages.add(new Page());
-        int charsBeforeCursor = charPos;
-        Page currPage = this.pages.get(pageNum);
-        int i;
-        for (i = lineNum - 1; i >= 0; i--)
-            charsBeforeCursor += ((Line) currPage.lines.get(i)).text.length();
-        for (i = pageNum - 1; i >= 0; i--)
-            charsBeforeCursor += ((Page) this.pages.get(i)).asString().length();
-        if (setCursorAfterInsertedText)
-            charsBeforeCursor += strAdd.length();
-        currPage = this.pages.get(pageNum);
-        Line currLine = currPage.lines.get(lineNum);
-        strAdd = currLine.text.substring(0, charPos) + strAdd + currLine.text.substring(charPos);
+        layOutPages(offset, offset);
+        this.text.insert(offset, strAdd);
+        editText(offset, offset, offset + strAdd.length(), setCursorAfterInsertedText ? offset + strAdd.length() : offset);
+        if (this.editListener != null)
+            this.editListener.textInserted(offset, strAdd);
+    }
+
+    /**
+     * Re-lays out the book after the text store had [start, oldEnd) replaced
+     * by [start, newEnd) and places the cursor at the given offset.
+     */
+    private void editText(int start, int oldEnd, int newEnd, int cursorOffset) {
+        // Find the line holding the edit, then step back one line since the
+        // edit may let the previous line take more text. A page held as text
+        // is padded once laid out, so it never takes any.
+        int pageNum = editPageAt(start);
+        int lineNum = getLineAt(pageNum, start);
         if (lineNum > 0) {
-            currPage.lines.remove(lineNum);
             lineNum--;
-            currLine = currPage.lines.get(lineNum);
-            charPos = currLine.text.length();
-        } else if (pageNum > 0) {
-            currPage.lines.remove(lineNum);
+        } else if (pageNum > 0 && this.pages.get(pageNum - 1).isLaidOut()) {
             pageNum--;
-            currPage = this.pages.get(pageNum);
-            lineNum = currPage.lines.size() - 1;
-            currLine = currPage.lines.get(lineNum);
-            charPos = currLine.text.length();
-        } else {
-            currLine.text = "";
-            charPos = 0;
-        }
-        while (!strAdd.isEmpty()) {
-            if (pageNum == totalPages())
-                this.pages.add(new Page());
-            strAdd = ((Page) this.pages.get(pageNum)).addText(lineNum, charPos, strAdd);
-            pageNum++;
-            lineNum = 0;
-            charPos = 0;
-        }
-        this.cursorPage = 0;
-        currPage = this.pages.get(this.cursorPage);
-        while (charsBeforeCursor > currPage.asString().length()) {
-            charsBeforeCursor -= currPage.asString().length();
-            this.cursorPage++;
-            currPage = this.pages.get(this.cursorPage);
-        }
-        this.cursorLine = 0;
-        currLine = currPage.lines.get(this.cursorLine);
-        while (charsBeforeCursor > currLine.text.length()) {
-            charsBeforeCursor -= currLine.text.length();
-            this.cursorLine++;
-            currLine = currPage.lines.get(this.cursorLine);
+            lineNum = this.pages.get(pageNum).lines.size() - 1;
         }
-        this.cursorPosChars = charsBeforeCursor;
+        BookLayout.reflow(this, pageNum, lineNum, oldEnd, newEnd - oldEnd);
+        setCursorOffset(cursorOffset);
+    }
+
+    public void setCursorOffset(int charsBeforeCursor) {
+        this.cursorPage = editPageAt(charsBeforeCursor);
+        this.cursorLine = getLineAt(this.cursorPage, charsBeforeCursor);
+        Page currPage = getPage(this.cursorPage);
+        Line currLine = currPage.lines.get(this.cursorLine);
+        this.cursorPosChars = Math.max(Math.min(charsBeforeCursor - getLineStart(this.cursorPage, this.cursorLine), currLine.text.length()), 0);
         if (this.cursorPosChars > 0 && currLine.text.charAt(this.cursorPosChars - 1) == '\n')
             if (this.cursorLine < currPage.lines.size() - 1) {
                 this.cursorLine++;
@@ -368,9 +632,47 @@ public class Book {
             }
     }
 
+    /**
+     * Fills a page up with blank lines so that it keeps its page break once
+     * more text follows it.
+     */
+    public void padPage(int pageNum) {
+        Page page = getPage(pageNum);
+        padPage(pageNum, page, getPageStart(pageNum));
+    }
+
+    private void padPage(int pageNum, Page page, int pageStart) {
+        int pageEnd = pageStart + page.charCount();
+        Line lastLine = page.lines.get(page.lines.size() - 1);
+        StringBuilder padding = new StringBuilder();
+        // A page as long as a page may be keeps its break without padding,
+        // and padding past that would push the page's last lines over
+        int room = BookLayout.MAX_CHARS_PER_PAGE - page.charCount();
+        // The newline goes on the last line only where wrapping the text
+        // again would put it there, so the page reads back the same
+        if (room > 0 && endsWithNewline(lastLine.text + "\n", lastLine)) {
+            lastLine.text += "\n";
+            padding.append('\n');
+        }
+        while (page.lines.size() < BookLayout.MAX_LINES_PER_PAGE && padding.length() < room) {
+            Line newLine = new Line();
+            newLine.setFormatting(page.lines.get(page.lines.size() - 1).getActiveFormatting());
+            newLine.text = "\n";
+            page.lines.add(newLine);
+            padding.append('\n');
+        }
+        this.text.insert(pageEnd, padding);
+        page.markDirty();
+        pageChanged(pageNum);
+    }
+
+    private static boolean endsWithNewline(String text, Line line) {
+        return BookLayout.wrapLine(new PieceTable(text), 0, line.getWrappedFormatting()).length() == text.length();
+    }
+
     public void moveCursor(CursorDirection direction) {
         // Make sure we have a valid page & line
-        Page currPage = this.pages.get(this.cursorPage);
+        Page currPage = getPage(this.cursorPage);
         Line currLine = currPage.lines.get(this.cursorLine);
 
         // We'll often use pixel-based "cursorPosPx" for up/down arrow
@@ -382,7 +684,9 @@ public class Book {
                 if (this.cursorLine == 0) {
                     // Already on first line of page
                     if (this.cursorPage > 0) {
-                        // Go to previous page if possible
+                        // Go to previous page if possible, the last of the
+                        // pages it fills once laid out
+                        getPage(this.cursorPage - 1);
                         this.cursorPage--;
                         currPage = this.pages.get(this.cursorPage);
                         this.cursorLine = currPage.lines.size() - 1;
@@ -400,11 +704,7 @@ public class Book {
                 currLine = currPage.lines.get(this.cursorLine);
 
                 // Approximate the cursor's character position via pixel
-                int cursorPosCharsUp = Line.sizeStringToApproxWidthBlind(
-                    currLine.wrappedFormatting + currLine.text, cursorPosPx
-                );
-                // Subtract out the wrappedFormatting so we land in the raw text
-                this.cursorPosChars = Math.max(cursorPosCharsUp - currLine.wrappedFormatting.length(), 0);
+                this.cursorPosChars = currLine.getCaretAt(cursorPosPx);
 
                 // If we landed just after a newline, step back 1 char
                 if (this.cursorPosChars > 0 && this.cursorPosChars <= currLine.text.length()) {
@@ -414,10 +714,7 @@ public class Book {
                 }
 
                 // === Skip color codes (if we landed on them) ===
-                while (this.cursorPosChars > 0
-                    && currLine.text.charAt(this.cursorPosChars - 1) == '\u00a7') {
-                    this.cursorPosChars = Math.max(this.cursorPosChars - 2, 0);
-                }
+                this.cursorPosChars = currLine.skipCodesBackward(this.cursorPosChars);
                 return;
 
             case DOWN:
@@ -441,12 +738,7 @@ public class Book {
                 currLine = currPage.lines.get(this.cursorLine);
 
                 // Approximate char position by pixel
-                int cursorPosCharsDown = Line.sizeStringToApproxWidthBlind(
-                    currLine.wrappedFormatting + currLine.text, cursorPosPx
-                );
-                this.cursorPosChars = Math.max(
-                    cursorPosCharsDown - currLine.wrappedFormatting.length(), 0
-                );
+                this.cursorPosChars = currLine.getCaretAt(cursorPosPx);
 
                 // If on or just after a newline, step back 1
                 if (this.cursorPosChars > 0 && this.cursorPosChars <= currLine.text.length()) {
@@ -456,10 +748,7 @@ public class Book {
                 }
 
                 // === Skip color codes ===
-                while (this.cursorPosChars > 0
-                    && currLine.text.charAt(this.cursorPosChars - 1) == '\u00a7') {
-                    this.cursorPosChars = Math.max(this.cursorPosChars - 2, 0);
-                }
+                this.cursorPosChars = currLine.skipCodesBackward(this.cursorPosChars);
                 return;
 
             case LEFT:
@@ -468,10 +757,7 @@ public class Book {
                     this.cursorPosChars--;
 
                     // === Skip color codes in case we land on them ===
-                    while (this.cursorPosChars > 0
-                        && currLine.text.charAt(this.cursorPosChars - 1) == '\u00a7') {
-                        this.cursorPosChars = Math.max(this.cursorPosChars - 2, 0);
-                    }
+                    this.cursorPosChars = currLine.skipCodesBackward(this.cursorPosChars);
 
                     // Optional: if we end up at pos=0, jump to previous line
                     // if you want that behavior in one keypress.
@@ -514,16 +800,7 @@ public class Book {
                     this.cursorPosChars++;
 
                     // === Skip color codes in case there's a chain ===
-                    // We need a loop that keeps going if we still find '§'
-                    // at the new position (minus 1).
-                    while (this.cursorPosChars < currLineLength
-                        && currLine.text.charAt(this.cursorPosChars - 1) == '\u00a7') {
-                        // Skip '§' + next char
-                        this.cursorPosChars += 1;
-                        if (this.cursorPosChars < currLineLength) {
-                            this.cursorPosChars++;
-                        }
-                    }
+                    this.cursorPosChars = currLine.skipCodesForward(this.cursorPosChars);
                 } else {
                     // If we're at the end or on a newline, try next line
                     if (this.cursorLine < currPage.lines.size() - 1) {
@@ -537,14 +814,12 @@ public class Book {
 
 
     public void turnPage(int numPages) {
-        Page oldPage = this.pages.get(this.cursorPage);
         this.cursorPage += numPages;
         if (this.cursorPage < 0) {
             this.cursorPage = 0;
         } else if (this.cursorPage >= totalPages()) {
             this.cursorPage = totalPages();
-            oldPage = Page.pad(oldPage);
-            this.pages.add(new Page());
+            addPage();
         }
         this.cursorLine = 0;
         this.cursorPosChars = 0;
@@ -553,17 +828,16 @@ public class Book {
     public int getCursorX() {
         if (this.pages.isEmpty())
             return 0;
-        Line currLine = ((Page) this.pages.get(this.cursorPage)).lines.get(this.cursorLine);
-        int visibleChars = Math.min(this.cursorPosChars, currLine.text.length());
-        return Line.getStringWidth(currLine.getTextWithWrappedFormatting().substring(0, visibleChars + currLine.wrappedFormatting.length()));
+        Line currLine = getPage(this.cursorPage).lines.get(this.cursorLine);
+        return currLine.getCaretX(this.cursorPosChars);
     }
 
     public String getCurrLine() {
-        return ((Line) ((Page) this.pages.get(this.cursorPage)).lines.get(this.cursorLine)).text;
+        return getPage(this.cursorPage).lines.get(this.cursorLine).text;
     }
 
     public String getCurrLineWithWrappedFormatting() {
-        return ((Line) ((Page) this.pages.get(this.cursorPage)).lines.get(this.cursorLine)).getTextWithWrappedFormatting();
+        return getPage(this.cursorPage).lines.get(this.cursorLine).getTextWithWrappedFormatting();
     }
 
     public String getCurrPageAsMCString() {
@@ -576,7 +850,7 @@ public class Book {
             this.cursorPage = totalPages() - 1;
             if (this.cursorPage < 0)
                 this.cursorPage = 0;
-            Page lastPage = this.pages.get(this.cursorPage);
+            Page lastPage = getPage(this.cursorPage);
             this.cursorLine = lastPage.lines.size() - 1;
             if (this.cursorLine < 0)
                 this.cursorLine = 0;
@@ -585,7 +859,7 @@ public class Book {
             if (this.cursorPosChars < 0)
                 this.cursorPosChars = 0;
         }
-        return ((Page) this.pages.get(this.cursorPage)).asString();
+        return getPage(this.cursorPage).asString();
     }
 
     public boolean isEmpty() {
@@ -614,7 +888,7 @@ public class Book {
                     System.out.println("Can't save an empty book! Aborting!");
                     return;
                 }
-                this.pages.remove(i);
+                removePage(i);
                 if (this.cursorPage >= totalPages()) {
                     this.cursorPage = totalPages() - 1;
                     this.cursorLine = 0;
@@ -622,16 +896,14 @@ public class Book {
                 }
             }
             NBTTagList bookPages = new NBTTagList();
-            int pageCount = 0;
-            for (Page page : this.pages) {
-                pageCount++;
-                if (pageCount == 51) {
+            for (int i = 0; i < totalPages(); i++) {
+                if (i == 50) {
                     Printer.gamePrint(Printer.DARK_RED + "Book is over 50 pages. Sending the first 50 to the server, and automatically saving the book...");
                     FileHandler fh = new FileHandler();
                     fh.saveBookToGHBFile(this);
                     break;
                 }
-                String pageText = formatter.sanitizeFormatting(page.asString());
+                String pageText = formatter.sanitizeFormatting(getPage(i).asString());
                 bookPages.appendTag((NBTBase) new NBTTagString(pageText));
             }
             if (bookObj.hasTagCompound()) {
@@ -675,7 +947,7 @@ public class Book {
     }
 
     public static String truncateStringPixels(String strIn, String substituteChars, int maxWidth, boolean keepRightSide) {
-        FontRenderer f = (Minecraft.getMinecraft()).fontRenderer;
+        FontMetrics f = BookController.getInstance().getFontMetrics();
         if (f.getStringWidth(strIn) <= maxWidth)
             return strIn;
         String strOut = "";
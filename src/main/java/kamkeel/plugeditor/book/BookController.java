@@ -3,18 +3,28 @@ package kamkeel.plugeditor.book;
 import cpw.mods.fml.common.Loader;
 import kamkeel.plugeditor.util.BookTextFormatter;
 import kamkeel.plugeditor.util.BookUtils;
+import kamkeel.plugeditor.util.CachingTextFormatter;
+import kamkeel.plugeditor.util.FontMetrics;
 import kamkeel.plugeditor.util.HexTextCompat;
+import kamkeel.plugeditor.util.VanillaFontMetrics;
+import net.minecraft.client.resources.IResourceManager;
+import net.minecraft.client.resources.IResourceManagerReloadListener;
 
 /**
  * Central controller for book-related runtime state. This tracks whether
  * optional integrations such as HexText are available so the rest of the editor
- * can react accordingly without repeatedly querying Forge.
+ * can react accordingly without repeatedly querying Forge. It also holds the
+ * {@link FontMetrics} used by layout, which tools running without a client can
+ * replace. The active formatter is handed out behind a wrap cache, and a font
+ * version tells per-line measurement caches when text may measure differently.
  */
-public final class BookController {
+public final class BookController implements IResourceManagerReloadListener {
     private static final BookController INSTANCE = new BookController();
 
     private boolean hexTextLoaded;
-    private BookTextFormatter textFormatter = BookUtils.INSTANCE;
+    private final CachingTextFormatter textFormatter = new CachingTextFormatter(BookUtils.INSTANCE);
+    private FontMetrics fontMetrics = VanillaFontMetrics.INSTANCE;
+    private volatile int fontVersion;
 
     private BookController() {
     }
@@ -27,14 +37,14 @@ public final class BookController {
         this.hexTextLoaded = Loader.isModLoaded("hextext");
         if (this.hexTextLoaded) {
             try {
-                this.textFormatter = HexTextCompat.INSTANCE;
+                setTextFormatter(HexTextCompat.INSTANCE);
             } catch (Throwable throwable) {
                 this.hexTextLoaded = false;
-                this.textFormatter = BookUtils.INSTANCE;
+                setTextFormatter(BookUtils.INSTANCE);
                 System.out.println("[BookEditor] HexText unavailable, falling back to legacy formatter: " + throwable.getMessage());
             }
         } else {
-            this.textFormatter = BookUtils.INSTANCE;
+            setTextFormatter(BookUtils.INSTANCE);
         }
     }
 
@@ -45,4 +55,38 @@ public final class BookController {
     public BookTextFormatter getTextFormatter() {
         return this.textFormatter;
     }
+
+    public void setTextFormatter(BookTextFormatter textFormatter) {
+        this.textFormatter.setDelegate(textFormatter == null ? BookUtils.INSTANCE : textFormatter);
+    }
+
+    public CachingTextFormatter getWrapCache() {
+        return this.textFormatter;
+    }
+
+    public FontMetrics getFontMetrics() {
+        return this.fontMetrics;
+    }
+
+    public void setFontMetrics(FontMetrics fontMetrics) {
+        this.fontMetrics = fontMetrics == null ? VanillaFontMetrics.INSTANCE : fontMetrics;
+        fontChanged();
+    }
+
+    public int getFontVersion() {
+        return this.fontVersion;
+    }
+
+    /**
+     * Drops everything measured with the old glyph widths.
+     */
+    public void fontChanged() {
+        this.fontVersion++;
+        this.textFormatter.invalidate();
+    }
+
+    @Override
+    public void onResourceManagerReload(IResourceManager resourceManager) {
+        fontChanged();
+    }
 }
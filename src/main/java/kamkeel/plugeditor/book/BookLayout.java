@@ -0,0 +1,251 @@
+package kamkeel.plugeditor.book;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kamkeel.plugeditor.util.BookTextFormatter;
+
+/**
+ * Lays the text held in a Book's {@link PieceTable} out into pages and lines.
+ * Wrapping follows the rules the editor always used: lines are wrapped by the
+ * active {@link kamkeel.plugeditor.util.BookTextFormatter}, a page holds at
+ * most 13 lines and 255 characters, and the first line of a page starts
+ * without carried formatting.
+ */
+public final class BookLayout {
+    public static final int MAX_LINES_PER_PAGE = 13;
+
+    public static final int MAX_CHARS_PER_PAGE = 255;
+
+    // Initial number of characters handed to the wrapper when measuring a line
+    private static final int WRAP_WINDOW = 64;
+
+    private BookLayout() {
+    }
+
+    /**
+     * Re-wraps the book starting at the given line after its text store has
+     * been edited. Lines before the start position are kept as they are.
+     * Wrapping stops as soon as the layout re-converges with the old one, so
+     * an edit only costs the lines it actually moves no matter how far into
+     * the book it happens. A page still held as text is laid out once the
+     * edit moves text into or out of it.
+     *
+     * @param oldEditEnd end of the replaced range, in offsets before the edit
+     * @param delta      number of characters the edit added (negative if removed)
+     */
+    public static void reflow(Book book, int pageNum, int lineNum, int oldEditEnd, int delta) {
+        PieceTable text = book.getText();
+        List<Page> pages = book.pages;
+        if (pages.isEmpty())
+            pages.add(new Page());
+
+        int offset = book.getLineStart(pageNum, lineNum);
+        int newEditEnd = oldEditEnd + delta;
+        Page firstPage = pages.get(pageNum);
+        int pageChars = 0;
+        for (int i = 0; i < lineNum; i++)
+            pageChars += firstPage.lines.get(i).text.length();
+        int formatting = lineNum > 0 ? firstPage.lines.get(lineNum - 1).getActiveFormatting() : BookTextFormatter.NO_FORMATTING;
+
+        // Walk the old layout in lockstep so a position can be compared
+        // with the line that used to be there.
+        int oldPageStart = offset - pageChars;
+        int oldLineStart = offset;
+
+        List<List<Line>> newPages = new ArrayList<List<Line>>();
+        List<Line> newLines = new ArrayList<Line>();
+        newPages.add(newLines);
+        int currPage = pageNum;
+        int currLine = lineNum;
+        boolean converged = false;
+
+        while (offset < text.length()) {
+            if (currLine >= MAX_LINES_PER_PAGE) {
+                oldPageStart += oldPageChars(pages, currPage);
+                currPage++;
+                currLine = 0;
+                oldLineStart = oldPageStart;
+                pageChars = 0;
+                formatting = BookTextFormatter.NO_FORMATTING;
+                newLines = new ArrayList<Line>();
+                newPages.add(newLines);
+            }
+
+            // The line about to be produced, and everything after it, is
+            // what the old layout already holds once it starts at the same
+            // text past the edit, its page started at the same text (the
+            // 255 character budget depends on it) and it carries the same
+            // formatting.
+            Line oldLine = currPage < pages.size() && currLine < pages.get(currPage).lines.size() ? pages.get(currPage).lines.get(currLine) : null;
+            if (oldLine != null && offset >= newEditEnd && oldLineStart >= oldEditEnd && oldLineStart + delta == offset
+                && oldLineStart - oldPageStart == pageChars && formatting == oldLine.getFormatting()) {
+                converged = true;
+                break;
+            }
+            if (oldLine != null && !pages.get(currPage).isLaidOut()) {
+                // The page's text lies past the edit, moved along by it
+                book.layOutPage(currPage, oldLineStart + delta);
+                oldLine = pages.get(currPage).lines.get(0);
+            }
+
+            Line line = new Line();
+            line.setFormatting(formatting);
+            line.text = wrapLine(text, offset, line.getWrappedFormatting());
+            if (layOutPageReached(book, currPage, offset + line.text.length(), newEditEnd, delta))
+                continue;
+
+            if (pageChars + line.text.length() > MAX_CHARS_PER_PAGE) {
+                int splitAt = pageSplitPoint(line.text, MAX_CHARS_PER_PAGE - pageChars, currLine == 0);
+                if (splitAt > 0) {
+                    line.text = line.text.substring(0, splitAt);
+                    newLines.add(line);
+                    offset += splitAt;
+                }
+                // The rest of the text continues on the next page
+                currLine = MAX_LINES_PER_PAGE;
+                continue;
+            }
+
+            newLines.add(line);
+            offset += line.text.length();
+            pageChars += line.text.length();
+            formatting = line.getActiveFormatting();
+            if (oldLine != null)
+                oldLineStart += oldLine.text.length();
+            currLine++;
+        }
+
+        splice(book, pageNum, lineNum, newPages, converged ? currLine : -1);
+    }
+
+    /**
+     * Lays out a single standalone page. Text that does not fit on one page is
+     * dropped, matching how pasted pages have always been inserted.
+     */
+    public static List<Line> layoutPage(CharSequence text) {
+        PieceTable source = text instanceof PieceTable ? (PieceTable) text : new PieceTable(text);
+        List<Line> lines = new ArrayList<Line>();
+        int offset = 0;
+        int pageChars = 0;
+        int formatting = BookTextFormatter.NO_FORMATTING;
+        while (offset < source.length() && lines.size() < MAX_LINES_PER_PAGE) {
+            Line line = new Line();
+            line.setFormatting(formatting);
+            line.text = wrapLine(source, offset, line.getWrappedFormatting());
+            if (pageChars + line.text.length() > MAX_CHARS_PER_PAGE) {
+                int splitAt = pageSplitPoint(line.text, MAX_CHARS_PER_PAGE - pageChars, lines.isEmpty());
+                if (splitAt > 0) {
+                    line.text = line.text.substring(0, splitAt);
+                    lines.add(line);
+                }
+                break;
+            }
+            lines.add(line);
+            offset += line.text.length();
+            pageChars += line.text.length();
+            formatting = line.getActiveFormatting();
+        }
+        if (lines.isEmpty())
+            lines.add(new Line());
+        return lines;
+    }
+
+    /**
+     * Returns the first wrapped line of the text starting at offset. Only a
+     * window of the text is handed to the wrapper; the window grows until
+     * the produced line no longer fills it. A line ends after its first
+     * newline.
+     */
+    static String wrapLine(PieceTable text, int offset, String formatting) {
+        int remaining = text.length() - offset;
+        int window = Math.min(WRAP_WINDOW, remaining);
+        while (true) {
+            String chunk = text.substring(offset, offset + window);
+            List<String> wrapped = Line.listFormattedStringToWidth(chunk, formatting);
+            String first = wrapped.isEmpty() ? chunk : wrapped.get(0);
+            if (first.length() < window || window == remaining) {
+                String line;
+                if (first.isEmpty()) {
+                    line = chunk.substring(0, 1);
+                } else {
+                    line = first.length() > chunk.length() ? chunk : chunk.substring(0, first.length());
+                }
+                // The wrapper hands back "\n\n" for a run of newlines at the
+                // start of a line; each newline ends a line of its own.
+                int newline = line.indexOf('\n');
+                return newline == -1 ? line : line.substring(0, newline + 1);
+            }
+            window = Math.min(window * 2, remaining);
+        }
+    }
+
+    private static int pageSplitPoint(String lineText, int splitAt, boolean firstLineOfPage) {
+        if (splitAt < 0)
+            splitAt = 0;
+        if (lineText.charAt(splitAt) != ' ') {
+            int spacePos = lineText.lastIndexOf(' ', splitAt);
+            splitAt = spacePos == -1 ? 0 : spacePos;
+        }
+        // A page must take at least some text, otherwise it would be
+        // pushed forward forever.
+        if (splitAt == 0 && firstLineOfPage)
+            splitAt = Math.min(MAX_CHARS_PER_PAGE, lineText.length());
+        return splitAt;
+    }
+
+    /**
+     * Lays out a page held as text that a line ending at the given offset
+     * takes text from, so that its padding is in place before the text
+     * after it is wrapped. Returns whether a page was laid out.
+     */
+    private static boolean layOutPageReached(Book book, int currPage, int lineEnd, int newEditEnd, int delta) {
+        // Text up to the end of the edit lies on pages laid out already
+        if (lineEnd <= newEditEnd)
+            return false;
+        int lastPage = book.getPageAt(lineEnd - delta);
+        for (int i = currPage + 1; i <= lastPage; i++) {
+            if (!book.pages.get(i).isLaidOut()) {
+                book.layOutPage(i, book.getPageStart(i) + delta);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int oldPageChars(List<Page> pages, int pageNum) {
+        return pageNum < pages.size() ? pages.get(pageNum).charCount() : 0;
+    }
+
+    private static void splice(Book book, int pageNum, int lineNum, List<List<Line>> newPages, int convergedLine) {
+        List<Page> pages = book.pages;
+        int oldPageCount = pages.size();
+        int lastPage = pageNum + newPages.size() - 1;
+        for (int i = 0; i < newPages.size(); i++) {
+            int index = pageNum + i;
+            if (index >= pages.size())
+                pages.add(new Page());
+            Page page = pages.get(index);
+            List<Line> merged = new ArrayList<Line>(page.lines.subList(0, i == 0 ? lineNum : 0));
+            merged.addAll(newPages.get(i));
+            if (index == lastPage && convergedLine >= 0)
+                merged.addAll(page.lines.subList(convergedLine, page.lines.size()));
+            if (merged.isEmpty())
+                merged.add(new Line());
+            page.lines.clear();
+            page.lines.addAll(merged);
+            page.markDirty();
+        }
+        // The text ended before the layout re-converged, drop what is left
+        if (convergedLine < 0) {
+            while (pages.size() > lastPage + 1)
+                pages.remove(pages.size() - 1);
+        }
+        if (pages.size() != oldPageCount) {
+            book.pagesChanged(pageNum, lastPage);
+        } else {
+            for (int i = pageNum; i <= lastPage; i++)
+                book.pageChanged(i);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package kamkeel.plugeditor.book;
+
+import kamkeel.plugeditor.util.BookTextFormatter;
+
+/**
+ * Positions of the formatting codes in one line of text. The line is probed
+ * with the active formatter once, after which cursor movement and deletion
+ * look codes up by binary search instead of probing the text again.
+ */
+public final class CodeSpans {
+    private static final int[] NONE = new int[0];
+
+    private final String text;
+
+    // Code starts in ascending order, and the length of each code
+    private final int[] starts;
+
+    private final int[] lengths;
+
+    // Code indices ordered by end, codes sharing an end latest start first
+    private final int[] byEnd;
+
+    private CodeSpans(String text, int[] starts, int[] lengths, int[] byEnd) {
+        this.text = text;
+        this.starts = starts;
+        this.lengths = lengths;
+        this.byEnd = byEnd;
+    }
+
+    public static CodeSpans of(String text, BookTextFormatter formatter) {
+        int count = 0;
+        int[] starts = NONE;
+        int[] lengths = NONE;
+        for (int i = 0; i < text.length(); i++) {
+            int length = formatter.detectColorCodeLength(text, i);
+            if (length <= 0)
+                continue;
+            if (count == starts.length) {
+                int capacity = Math.max(4, count * 2);
+                starts = copyOf(starts, count, capacity);
+                lengths = copyOf(lengths, count, capacity);
+            }
+            starts[count] = i;
+            lengths[count] = length;
+            count++;
+        }
+        starts = copyOf(starts, count, count);
+        lengths = copyOf(lengths, count, count);
+
+        // Codes rarely overlap, so this insertion sort barely moves anything
+        int[] byEnd = new int[count];
+        for (int i = 0; i < count; i++) {
+            int j = i;
+            while (j > 0 && endsAfter(starts, lengths, byEnd[j - 1], i)) {
+                byEnd[j] = byEnd[j - 1];
+                j--;
+            }
+            byEnd[j] = i;
+        }
+        return new CodeSpans(text, starts, lengths, byEnd);
+    }
+
+    /**
+     * Whether these spans were found in the given text. Line text is only
+     * ever replaced, never changed in place, so identity is enough.
+     */
+    public boolean isFor(String text) {
+        return this.text == text;
+    }
+
+    public int size() {
+        return this.starts.length;
+    }
+
+    /**
+     * Length of the code starting at the given index, or 0, the same as the
+     * formatter's detectColorCodeLength.
+     */
+    public int codeLengthAt(int index) {
+        int i = indexOfStart(index);
+        return i >= 0 ? this.lengths[i] : 0;
+    }
+
+    /**
+     * Start of the code ending right before the given index, or -1, the same
+     * as the formatter's findColorCodeStart.
+     */
+    public int codeStartBefore(int endExclusive) {
+        int lo = 0;
+        int hi = this.byEnd.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (end(this.byEnd[mid]) < endExclusive) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo < this.byEnd.length && end(this.byEnd[lo]) == endExclusive)
+            return this.starts[this.byEnd[lo]];
+        return -1;
+    }
+
+    /**
+     * Start of the code the given position falls strictly inside of, or -1
+     * when the position is not within a code.
+     */
+    public int codeStartAround(int pos) {
+        int lo = 0;
+        int hi = this.starts.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.starts[mid] < pos) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (found >= 0 && end(found) > pos)
+            return this.starts[found];
+        return -1;
+    }
+
+    private int indexOfStart(int index) {
+        int lo = 0;
+        int hi = this.starts.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.starts[mid] < index) {
+                lo = mid + 1;
+            } else if (this.starts[mid] > index) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int end(int code) {
+        return this.starts[code] + this.lengths[code];
+    }
+
+    private static boolean endsAfter(int[] starts, int[] lengths, int code, int other) {
+        int end = starts[code] + lengths[code];
+        int otherEnd = starts[other] + lengths[other];
+        return end > otherEnd || (end == otherEnd && starts[code] < starts[other]);
+    }
+
+    private static int[] copyOf(int[] array, int count, int capacity) {
+        if (array.length == capacity)
+            return array;
+        int[] copy = new int[capacity];
+        System.arraycopy(array, 0, copy, 0, count);
+        return copy;
+    }
+}
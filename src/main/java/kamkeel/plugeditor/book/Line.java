@@ -1,91 +1,206 @@
 package kamkeel.plugeditor.book;
 
 /**
- * Represents a single line of text inside a book page. Handles text wrapping
- * and formatting logic so that the rendered output matches Minecraft's book
- * GUI.
+ * Represents a single line of text inside a book page. The text is the span of
+ * the book's text store that the layout placed on this line, and the
+ * formatting is the state carried over from the previous line, kept as a
+ * formatter state and only turned into codes when the line is drawn or saved.
+ * Also holds the width and wrapping helpers used so that the rendered output
+ * matches Minecraft's book GUI.
  */
 
 import java.util.List;
 
 import kamkeel.plugeditor.util.BookTextFormatter;
-import kamkeel.plugeditor.util.FontRendererPrivate;
-import net.minecraft.client.Minecraft;
-import net.minecraft.client.gui.FontRenderer;
+import kamkeel.plugeditor.util.FontMetrics;
 
 public class Line {
     public static final int BOOK_TEXT_WIDTH = 116;
 
     public static final char SPLIT_CHAR = '\u00b7';
 
-    public String wrappedFormatting = "";
-
     public String text = "";
 
-    public String addText(int charPos, String strAdd) {
-        if (charPos < 0) {
-            charPos = 0;
-        } else if (charPos > this.text.length()) {
-            charPos = this.text.length();
-        }
-        String newText = this.text.substring(0, charPos) + strAdd + this.text.substring(charPos);
-        List<String> newLines = listFormattedStringToWidth(newText, this.wrappedFormatting);
-        this.text = newLines.get(0);
-        String overflow = "";
-        for (int i = 1; i < newLines.size(); i++)
-            overflow = overflow + (String) newLines.get(i);
-        return overflow;
-    }
+    private int formatting = BookTextFormatter.NO_FORMATTING;
+
+    private CodeSpans codeSpans;
+
+    // Width of every prefix of the formatting codes plus the text, valid for
+    // the text, formatting and font version it was measured with
+    private int[] caretTable;
+
+    private String caretText;
+
+    private int caretFormatting;
+
+    private int caretFontVersion;
 
     public static int sizeStringToApproxWidthBlind(String str, int lenPixels) {
-        FontRenderer f = (Minecraft.getMinecraft()).fontRenderer;
-        if (getStringWidth(str) <= lenPixels)
+        FontMetrics metrics = metrics();
+        int[] prefixWidths = new int[str.length() + 1];
+        if (metrics.measurePrefixes(str, prefixWidths) <= lenPixels)
             return str.length();
-        String outStr = str.substring(0, sizeStringToWidthBlind(str, lenPixels));
+        int fit = searchPrefixWidths(prefixWidths, str.length(), lenPixels);
         // If the entire string fits, avoid accessing beyond the last index
-        if (outStr.length() == str.length()) {
-            return outStr.length();
+        if (fit == str.length()) {
+            return fit;
         }
 
-        float partialCharWidth = lenPixels - getStringWidth(outStr);
-        if ((partialCharWidth / f.getCharWidth(str.charAt(outStr.length()))) > 0.5D)
-            return outStr.length() + 1;
-        return outStr.length();
+        float partialCharWidth = lenPixels - prefixWidths[fit];
+        if ((partialCharWidth / metrics.getCharWidth(str.charAt(fit))) > 0.5D)
+            return fit + 1;
+        return fit;
     }
 
     public static int sizeStringToWidthBlind(String s, int maxPx) {
-        FontRenderer f = Minecraft.getMinecraft().fontRenderer;
-        if (f.getStringWidth(s) <= maxPx) return s.length();
-        int lo=0, hi=s.length();
+        int[] prefixWidths = new int[s.length() + 1];
+        if (metrics().measurePrefixes(s, prefixWidths) <= maxPx) return s.length();
+        return searchPrefixWidths(prefixWidths, s.length(), maxPx);
+    }
+
+    // Binary search over prefix widths measured in one pass
+    private static int searchPrefixWidths(int[] prefixWidths, int length, int maxPx) {
+        int lo=0, hi=length;
         while (lo < hi) {
             int mid = (lo+hi+1)/2;
-            if (f.getStringWidth(s.substring(0, mid)) <= maxPx) lo = mid; else hi = mid-1;
+            if (prefixWidths[mid] <= maxPx) lo = mid; else hi = mid-1;
         }
         return lo;
     }
 
+    public int getFormatting() {
+        return this.formatting;
+    }
+
+    public void setFormatting(int formatting) {
+        this.formatting = formatting;
+    }
+
+    /**
+     * Formatting codes in this line's text, found again only after the text
+     * was replaced.
+     */
+    public CodeSpans getCodeSpans() {
+        CodeSpans spans = this.codeSpans;
+        if (spans == null || !spans.isFor(this.text)) {
+            spans = CodeSpans.of(this.text, formatter());
+            this.codeSpans = spans;
+        }
+        return spans;
+    }
+
+    /**
+     * Moves a cursor position that fell inside a formatting code back to
+     * the start of the run of codes holding it.
+     */
+    public int skipCodesBackward(int pos) {
+        CodeSpans spans = getCodeSpans();
+        int start = spans.codeStartAround(pos);
+        if (start < 0)
+            return pos;
+        pos = start;
+        while ((start = spans.codeStartBefore(pos)) >= 0)
+            pos = start;
+        return pos;
+    }
+
+    /**
+     * Moves a cursor position that fell inside a formatting code forward to
+     * the end of the run of codes holding it.
+     */
+    public int skipCodesForward(int pos) {
+        CodeSpans spans = getCodeSpans();
+        int start = spans.codeStartAround(pos);
+        if (start < 0)
+            return pos;
+        pos = start + spans.codeLengthAt(start);
+        int length;
+        while ((length = spans.codeLengthAt(pos)) > 0)
+            pos += length;
+        return Math.min(pos, this.text.length());
+    }
+
+    /**
+     * Pixel offset of the caret standing before the given character of the
+     * text, the same width getStringWidth gives the formatting codes plus
+     * the text up to there.
+     */
+    public int getCaretX(int pos) {
+        int[] table = caretTable();
+        int prefix = table.length - 1 - this.text.length();
+        return table[prefix + Math.max(Math.min(pos, this.text.length()), 0)];
+    }
+
+    /**
+     * Caret position in the text closest to the given pixel offset, measured
+     * the way sizeStringToApproxWidthBlind measures the formatted line.
+     */
+    public int getCaretAt(int px) {
+        int[] table = caretTable();
+        int length = table.length - 1;
+        int prefix = length - this.text.length();
+        int fit;
+        if (table[length] <= px) {
+            fit = length;
+        } else {
+            fit = searchPrefixWidths(table, length, px);
+            if (fit != length) {
+                char c = fit < prefix ? getWrappedFormatting().charAt(fit) : this.text.charAt(fit - prefix);
+                float partialCharWidth = px - table[fit];
+                if ((partialCharWidth / metrics().getCharWidth(c)) > 0.5D)
+                    fit++;
+            }
+        }
+        return Math.max(fit - prefix, 0);
+    }
+
+    private int[] caretTable() {
+        int fontVersion = BookController.getInstance().getFontVersion();
+        int[] table = this.caretTable;
+        if (table == null || this.caretText != this.text || this.caretFormatting != this.formatting || this.caretFontVersion != fontVersion) {
+            String line = getTextWithWrappedFormatting();
+            table = new int[line.length() + 1];
+            metrics().measurePrefixes(line, table);
+            this.caretTable = table;
+            this.caretText = this.text;
+            this.caretFormatting = this.formatting;
+            this.caretFontVersion = fontVersion;
+        }
+        return table;
+    }
+
+    public String getWrappedFormatting() {
+        return formatter().formattingCodes(this.formatting);
+    }
+
     public String getTextWithWrappedFormatting() {
-        return this.wrappedFormatting + this.text;
+        return getWrappedFormatting() + this.text;
     }
 
     public static int sizeStringToWidth(String s, int maxPx) {
-        FontRenderer fr = Minecraft.getMinecraft().fontRenderer;
-        return FontRendererPrivate.callSizeStringToWidth(fr, s, maxPx);
+        return metrics().sizeStringToWidth(s, maxPx);
     }
 
     public static List<String> listFormattedStringToWidth(String str, String wrappedFormatting) {
-        FontRenderer renderer = Minecraft.getMinecraft().fontRenderer;
-        BookTextFormatter formatter = BookController.getInstance().getTextFormatter();
-        return formatter.listFormattedStringToWidth(renderer, str, wrappedFormatting, BOOK_TEXT_WIDTH);
+        return formatter().listFormattedStringToWidth(metrics(), str, wrappedFormatting, BOOK_TEXT_WIDTH);
     }
 
-    public String getActiveFormatting() {
-        BookTextFormatter formatter = BookController.getInstance().getTextFormatter();
-        return formatter.extractActiveFormatting(this.wrappedFormatting + this.text);
+    /**
+     * Formatting state active at the end of this line.
+     */
+    public int getActiveFormatting() {
+        return formatter().advanceFormatting(this.formatting, this.text, 0, this.text.length());
     }
 
     public static int getStringWidth(String strIn) {
-        FontRenderer f = Minecraft.getMinecraft().fontRenderer;
-        return f.getStringWidth(strIn);
+        return metrics().getStringWidth(strIn);
+    }
+
+    private static BookTextFormatter formatter() {
+        return BookController.getInstance().getTextFormatter();
+    }
+
+    private static FontMetrics metrics() {
+        return BookController.getInstance().getFontMetrics();
     }
 }
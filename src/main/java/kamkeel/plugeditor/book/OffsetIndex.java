@@ -0,0 +1,163 @@
+package kamkeel.plugeditor.book;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prefix-sum index over the character counts of a Book's pages and lines.
+ * Page counts are kept in a Fenwick tree, so the offset a page starts at and
+ * the page holding an offset are both found in O(log n) without walking the
+ * pages or allocating. Line ends are kept per page since a page never holds
+ * more than {@link BookLayout#MAX_LINES_PER_PAGE} lines.
+ */
+final class OffsetIndex {
+    private int size;
+
+    private boolean valid;
+
+    // 1-based Fenwick tree over pageChars
+    private int[] tree = new int[1];
+
+    private int[] pageChars = new int[0];
+
+    private int[] lineCounts = new int[0];
+
+    // lineEnds[page][i] is the number of characters in lines 0..i of the page
+    private int[][] lineEnds = new int[0][];
+
+    void invalidate() {
+        this.valid = false;
+    }
+
+    boolean isValidFor(List<Page> pages) {
+        return this.valid && this.size == pages.size();
+    }
+
+    boolean isValid() {
+        return this.valid;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    void rebuild(List<Page> pages) {
+        this.size = pages.size();
+        if (this.pageChars.length < this.size) {
+            int capacity = Math.max(this.size, this.pageChars.length * 2);
+            this.tree = new int[capacity + 1];
+            this.pageChars = new int[capacity];
+            this.lineCounts = new int[capacity];
+            this.lineEnds = Arrays.copyOf(this.lineEnds, capacity);
+        }
+        Arrays.fill(this.tree, 0);
+        for (int i = 0; i < this.size; i++) {
+            refreshLines(i, pages.get(i));
+            this.tree[i + 1] = this.pageChars[i];
+        }
+        for (int i = 1; i <= this.size; i++) {
+            int parent = i + (i & -i);
+            if (parent <= this.size)
+                this.tree[parent] += this.tree[i];
+        }
+        this.valid = true;
+    }
+
+    /**
+     * Follows pages that were added or removed at the end, leaving the pages
+     * before them as they are. Appending a page costs O(log n), so a book
+     * laid out page by page does not rebuild the index for every page.
+     */
+    void resize(List<Page> pages) {
+        if (pages.size() < this.size)
+            this.size = pages.size();
+        while (this.size < pages.size()) {
+            if (this.size == this.pageChars.length) {
+                int capacity = Math.max(this.size * 2, 1);
+                this.tree = Arrays.copyOf(this.tree, capacity + 1);
+                this.pageChars = Arrays.copyOf(this.pageChars, capacity);
+                this.lineCounts = Arrays.copyOf(this.lineCounts, capacity);
+                this.lineEnds = Arrays.copyOf(this.lineEnds, capacity);
+            }
+            refreshLines(this.size, pages.get(this.size));
+            // Node i covers pages (i - lowbit(i), i], all but the new one known already
+            int node = this.size + 1;
+            this.tree[node] = this.pageChars[this.size] + pageStart(this.size) - pageStart(node - (node & -node));
+            this.size = node;
+        }
+    }
+
+    /**
+     * Re-reads the line lengths of one page whose text changed in place.
+     */
+    void update(int pageNum, Page page) {
+        int oldChars = this.pageChars[pageNum];
+        refreshLines(pageNum, page);
+        int delta = this.pageChars[pageNum] - oldChars;
+        if (delta != 0) {
+            for (int i = pageNum + 1; i <= this.size; i += i & -i)
+                this.tree[i] += delta;
+        }
+    }
+
+    int pageStart(int pageNum) {
+        if (pageNum > this.size)
+            pageNum = this.size;
+        int offset = 0;
+        for (int i = pageNum; i > 0; i -= i & -i)
+            offset += this.tree[i];
+        return offset;
+    }
+
+    int lineStart(int pageNum, int lineNum) {
+        if (pageNum >= this.size)
+            return pageStart(this.size);
+        int offset = pageStart(pageNum);
+        if (lineNum > 0)
+            offset += this.lineEnds[pageNum][Math.min(lineNum, this.lineCounts[pageNum]) - 1];
+        return offset;
+    }
+
+    /**
+     * Returns the page holding the given offset. An offset on a page boundary
+     * belongs to the earlier page, and offsets past the end to the last page.
+     */
+    int pageAt(int offset) {
+        int pos = 0;
+        for (int step = Integer.highestOneBit(Math.max(this.size, 1)); step > 0; step >>= 1) {
+            if (pos + step <= this.size && this.tree[pos + step] < offset) {
+                pos += step;
+                offset -= this.tree[pos];
+            }
+        }
+        return Math.max(Math.min(pos, this.size - 1), 0);
+    }
+
+    /**
+     * Returns the line of the page holding the given offset, counted from the
+     * start of that page. An offset on a line boundary belongs to the earlier
+     * line.
+     */
+    int lineAt(int pageNum, int pageOffset) {
+        int[] ends = this.lineEnds[pageNum];
+        int last = this.lineCounts[pageNum] - 1;
+        int lineNum = 0;
+        while (lineNum < last && ends[lineNum] < pageOffset)
+            lineNum++;
+        return lineNum;
+    }
+
+    private void refreshLines(int pageNum, Page page) {
+        List<Line> lines = page.lines;
+        int[] ends = this.lineEnds[pageNum];
+        if (ends == null || ends.length < lines.size())
+            ends = this.lineEnds[pageNum] = new int[Math.max(lines.size(), BookLayout.MAX_LINES_PER_PAGE)];
+        int total = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            total += lines.get(i).text.length();
+            ends[i] = total;
+        }
+        this.lineCounts[pageNum] = lines.size();
+        this.pageChars[pageNum] = total;
+    }
+}
@@ -1,9 +1,14 @@
 package kamkeel.plugeditor.book;
 
 /**
- * Represents a single page in a Book. A Page is composed of multiple Lines and
- * provides helpers for adding text, checking emptiness and formatting padding
- * so that page data fits within Minecraft's constraints.
+ * Represents a single page in a Book. A Page is composed of the Lines the
+ * book's layout produced for its span of the text store, and provides helpers
+ * for reading that text back and checking emptiness. The joined text is
+ * cached until {@link #markDirty()} reports that the lines changed.
+ * <p>
+ * A page read from a saved book can instead hold its text as a single line
+ * that has not been wrapped, until the book lays it out when the page is
+ * visited or edited.
  */
 
 import java.util.ArrayList;
@@ -12,103 +17,96 @@ import java.util.List;
 public class Page {
     public List<Line> lines = new ArrayList<Line>();
 
+    // Bumped by markDirty() whenever the lines change
+    private int version;
+
+    private int cachedVersion = -1;
+
+    private String cachedString = "";
+
+    private int cachedCharCount;
+
+    private boolean laidOut = true;
+
     public Page() {
         this.lines.add(new Line());
     }
 
-    public String addText(int lineNum, int charPos, String strAdd) {
-        if (lineNum >= 13)
-            return strAdd;
-        if (lineNum < 0) {
-            lineNum = 0;
-        } else if (lineNum > this.lines.size()) {
-            lineNum = this.lines.size();
-        }
-        if (lineNum == this.lines.size())
-            this.lines.add(new Line());
-        Line currLine = this.lines.get(lineNum);
-        if (lineNum > 0) {
-            currLine.wrappedFormatting = ((Line) this.lines.get(lineNum - 1)).getActiveFormatting();
-        } else {
-            currLine.wrappedFormatting = "";
-        }
-        String lineOverflow = currLine.addText(charPos, strAdd);
-        int prevLinesCharCount = 0;
-        for (int i = 0; i < lineNum; i++)
-            prevLinesCharCount += ((Line) this.lines.get(i)).text.length();
-        if (prevLinesCharCount + currLine.text.length() > 255) {
-            String pageOverflow = "";
-            for (int j = this.lines.size() - 1; j > lineNum; j--) {
-                pageOverflow = ((Line) this.lines.get(j)).text + pageOverflow;
-                this.lines.remove(j);
-            }
-            int splitAt = 255 - prevLinesCharCount;
-            if (splitAt < 0)
-                splitAt = 0;
-            if (currLine.text.charAt(splitAt) != ' ') {
-                int spacePos = currLine.text.lastIndexOf(' ', splitAt);
-                if (spacePos == -1) {
-                    splitAt = 0;
-                } else {
-                    splitAt = spacePos;
-                }
-            }
-            if (splitAt == 0) {
-                pageOverflow = currLine.text + lineOverflow + pageOverflow;
-                this.lines.remove(lineNum);
-            } else {
-                pageOverflow = currLine.text.substring(splitAt) + lineOverflow + pageOverflow;
-                currLine.text = currLine.text.substring(0, splitAt);
-            }
-            return pageOverflow;
-        }
-        if (!lineOverflow.isEmpty())
-            return addText(lineNum + 1, 0, lineOverflow);
-        return "";
+    /**
+     * A page holding the given text as one line, not laid out yet.
+     */
+    public Page(String text) {
+        Line line = new Line();
+        line.text = text;
+        this.lines.add(line);
+        this.laidOut = false;
+    }
+
+    /**
+     * Whether the lines are the ones the layout produced, rather than the
+     * page's text waiting to be laid out.
+     */
+    public boolean isLaidOut() {
+        return this.laidOut;
+    }
+
+    void setLines(List<Line> lines) {
+        this.lines.clear();
+        this.lines.addAll(lines);
+        this.laidOut = true;
+        markDirty();
     }
 
     public void clear() {
         this.lines.clear();
+        markDirty();
     }
 
-    public static Page pad(Page page) {
-        Line lastLine = page.lines.get(page.lines.size() - 1);
-        if (Line.getStringWidth(lastLine.wrappedFormatting + lastLine.text) < 116)
-            lastLine.text += "\n";
-        while (page.lines.size() < 13) {
-            Line newLine = new Line();
-            newLine.text = "\n";
-            page.lines.add(newLine);
-        }
-        return page;
+    /**
+     * Must be called after changing the lines of this page, so the cached
+     * text is rebuilt the next time it is asked for.
+     */
+    public void markDirty() {
+        this.version++;
+    }
+
+    public int getVersion() {
+        return this.version;
     }
 
     public String asString() {
-        String out = "";
-        for (Line line : this.lines)
-            out = out + line.text;
-        return out;
+        refresh();
+        return this.cachedString;
     }
 
     public int charCount() {
-        int total = 0;
-        for (Line line : this.lines)
-            total += line.text.length();
-        return total;
+        refresh();
+        return this.cachedCharCount;
+    }
+
+    private void refresh() {
+        if (this.cachedVersion == this.version)
+            return;
+        if (this.lines.size() == 1) {
+            this.cachedString = this.lines.get(0).text;
+        } else {
+            StringBuilder out = new StringBuilder();
+            for (Line line : this.lines)
+                out.append(line.text);
+            this.cachedString = out.toString();
+        }
+        this.cachedCharCount = this.cachedString.length();
+        this.cachedVersion = this.version;
     }
 
     public void dump() {
         System.out.println("##############################################################################");
         for (Line line : this.lines)
-            System.out.println("WF:|" + line.wrappedFormatting + "|TX:|" + line.text.replaceAll("\n", "\\\\n") + "|");
+            System.out.println("WF:|" + line.getWrappedFormatting() + "|TX:|" + line.text.replaceAll("\n", "\\\\n") + "|");
         System.out.println("##############################################################################\n\n");
     }
 
     public boolean isEmpty() {
-        for (Line line : this.lines) {
-            if (!line.text.isEmpty())
-                return false;
-        }
-        return true;
+        return charCount() == 0;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,251 @@
+package kamkeel.plugeditor.book;
+
+import java.util.Random;
+
+/**
+ * Piece-table text store that holds the complete text of a {@link Book}.
+ * The text is described by pieces pointing into an immutable original buffer
+ * and an append-only add buffer. Pieces are kept in an implicit treap ordered
+ * by position, so inserting or deleting at any offset costs O(log n) in the
+ * number of pieces and never copies the surrounding text.
+ */
+public final class PieceTable implements CharSequence {
+    // Rebuild into a single piece once the add buffer holds this much garbage
+    private static final int COMPACT_THRESHOLD = 1 << 16;
+
+    private final Random random = new Random(0x5EEDL);
+
+    private String original = "";
+
+    private StringBuilder added = new StringBuilder();
+
+    private Node root;
+
+    // Out-parameters of split(), avoids allocating a pair on every edit
+    private Node splitLeft;
+
+    private Node splitRight;
+
+    public PieceTable() {
+    }
+
+    public PieceTable(CharSequence text) {
+        reset(text);
+    }
+
+    @Override
+    public int length() {
+        return this.root == null ? 0 : this.root.size;
+    }
+
+    public boolean isEmpty() {
+        return this.root == null;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length())
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length());
+        Node node = this.root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index < leftSize + node.length) {
+                return node.buffer.charAt(node.start + index - leftSize);
+            } else {
+                index -= leftSize + node.length;
+                node = node.right;
+            }
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return substring(start, end);
+    }
+
+    public String substring(int start, int end) {
+        checkRange(start, end);
+        if (start == end)
+            return "";
+        StringBuilder out = new StringBuilder(end - start);
+        appendTo(out, this.root, start, end);
+        return out.toString();
+    }
+
+    /**
+     * Appends the characters in [start, end) to the given builder, visiting
+     * only the pieces that overlap the range.
+     */
+    public void appendTo(StringBuilder out, int start, int end) {
+        checkRange(start, end);
+        if (start < end)
+            appendTo(out, this.root, start, end);
+    }
+
+    @Override
+    public String toString() {
+        return substring(0, length());
+    }
+
+    public void clear() {
+        reset("");
+    }
+
+    public void reset(CharSequence text) {
+        this.original = text == null ? "" : text.toString();
+        this.added = new StringBuilder();
+        this.root = this.original.isEmpty() ? null : newNode(this.original, 0, this.original.length());
+    }
+
+    public void insert(int offset, CharSequence text) {
+        if (offset < 0 || offset > length())
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length());
+        if (text == null || text.length() == 0)
+            return;
+        int addStart = this.added.length();
+        this.added.append(text);
+        split(this.root, offset);
+        Node left = this.splitLeft;
+        Node right = this.splitRight;
+        if (!extendLastPiece(left, addStart, text.length()))
+            left = merge(left, newNode(this.added, addStart, text.length()));
+        this.root = merge(left, right);
+    }
+
+    public void delete(int start, int end) {
+        checkRange(start, end);
+        if (start == end)
+            return;
+        split(this.root, end);
+        Node right = this.splitRight;
+        split(this.splitLeft, start);
+        this.root = merge(this.splitLeft, right);
+        if (this.added.length() > COMPACT_THRESHOLD && this.added.length() > 2 * length())
+            reset(toString());
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > length() || start > end)
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + "), length " + length());
+    }
+
+    // Typing appends to the add buffer right after the previous keystroke, so
+    // the piece ending at the cursor can usually just grow in place.
+    private boolean extendLastPiece(Node tree, int addStart, int length) {
+        if (tree == null)
+            return false;
+        Node last = tree;
+        while (last.right != null)
+            last = last.right;
+        if (last.buffer != this.added || last.start + last.length != addStart)
+            return false;
+        last.length += length;
+        for (Node node = tree; node != null; node = node.right)
+            node.size += length;
+        return true;
+    }
+
+    private Node newNode(CharSequence buffer, int start, int length) {
+        Node node = new Node(buffer, start, length, this.random.nextInt());
+        node.size = length;
+        return node;
+    }
+
+    /**
+     * Splits the tree so that splitLeft holds the first {@code offset}
+     * characters and splitRight the rest, cutting a piece in two if needed.
+     */
+    private void split(Node node, int offset) {
+        if (node == null) {
+            this.splitLeft = null;
+            this.splitRight = null;
+            return;
+        }
+        int leftSize = size(node.left);
+        if (offset <= leftSize) {
+            split(node.left, offset);
+            node.left = this.splitRight;
+            update(node);
+            this.splitRight = node;
+        } else if (offset >= leftSize + node.length) {
+            split(node.right, offset - leftSize - node.length);
+            node.right = this.splitLeft;
+            update(node);
+            this.splitLeft = node;
+        } else {
+            int cut = offset - leftSize;
+            Node tail = new Node(node.buffer, node.start + cut, node.length - cut, node.priority);
+            tail.right = node.right;
+            update(tail);
+            node.length = cut;
+            node.right = null;
+            update(node);
+            this.splitLeft = node;
+            this.splitRight = tail;
+        }
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private static void appendTo(StringBuilder out, Node node, int start, int end) {
+        while (node != null && start < end) {
+            int leftSize = size(node.left);
+            if (start < leftSize)
+                appendTo(out, node.left, start, Math.min(end, leftSize));
+            int pieceStart = Math.max(start - leftSize, 0);
+            int pieceEnd = Math.min(end - leftSize, node.length);
+            if (pieceStart < pieceEnd)
+                out.append(node.buffer, node.start + pieceStart, node.start + pieceEnd);
+            int skip = leftSize + node.length;
+            start = Math.max(start - skip, 0);
+            end -= skip;
+            node = node.right;
+        }
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void update(Node node) {
+        node.size = size(node.left) + node.length + size(node.right);
+    }
+
+    private static final class Node {
+        final CharSequence buffer;
+
+        final int start;
+
+        final int priority;
+
+        int length;
+
+        int size;
+
+        Node left;
+
+        Node right;
+
+        Node(CharSequence buffer, int start, int length, int priority) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+            this.priority = priority;
+        }
+    }
+}
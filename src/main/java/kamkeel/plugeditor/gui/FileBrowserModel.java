@@ -0,0 +1,449 @@
+package kamkeel.plugeditor.gui;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import kamkeel.plugeditor.FileHandler;
+import kamkeel.plugeditor.book.Book;
+import kamkeel.plugeditor.storage.BookIndex;
+import kamkeel.plugeditor.storage.BookIndexEntry;
+import kamkeel.plugeditor.storage.BookPreview;
+import kamkeel.plugeditor.storage.DirectoryEntry;
+import kamkeel.plugeditor.storage.DirectorySnapshot;
+import kamkeel.plugeditor.storage.PreviewLoader;
+import kamkeel.plugeditor.storage.SearchHit;
+
+/**
+ * Everything GuiFileBrowser writes on screen: the listing of the current
+ * directory with a label and colour per row, the shortened path and the
+ * preview of the selected book. Labels are built when the listing or the
+ * selection changes rather than while drawing. Listings come from the
+ * background directory scanner, so a new snapshot shows up here once it has
+ * been read, and previews are parsed in the background by the preview
+ * loader. Files can be sorted by what the book index knows about them.
+ * In search mode the rows are the pages of saved books that match the
+ * search instead, answered by the book index without opening any book.
+ */
+final class FileBrowserModel {
+    static final int LABEL_WIDTH = 200;
+
+    static final int PARENT_COLOR = 65280;
+
+    static final int DIRECTORY_COLOR = 65280;
+
+    static final int FILE_COLOR = 16711680;
+
+    static final int SUMMARY_COLOR = 10526880;
+
+    private static final String PARENT_LABEL = "..";
+
+    private static final String LOADING_LABEL = "Loading preview...";
+
+    private final FileHandler fileHandler;
+
+    private File listedPath;
+
+    private DirectorySnapshot snapshot;
+
+    private final BookIndex bookIndex;
+
+    private int indexVersion = -1;
+
+    private SortOrder sortOrder = SortOrder.NAME;
+
+    // Set when the rows must be rebuilt though the listing and index are not new
+    private boolean listChanged;
+
+    private boolean searching;
+
+    private String searchQuery = "";
+
+    private List<DirectoryEntry> entries = Collections.emptyList();
+
+    private String[] slotLabels = new String[0];
+
+    private int[] slotColors = new int[0];
+
+    // Page each row opens at, which is only past the first for search hits
+    private int[] slotPages = new int[0];
+
+    private String summaryLabel = "";
+
+    private String pathLabel = "";
+
+    private CompletableFuture<BookPreview> previewRequest;
+
+    private Book previewBook;
+
+    private int previewPageNum;
+
+    private boolean hasPreview;
+
+    private String previewTitle = "";
+
+    private String previewAuthor = "";
+
+    private String previewPage = "";
+
+    FileBrowserModel(FileHandler fileHandler) {
+        this.fileHandler = fileHandler;
+        this.bookIndex = fileHandler.getBookIndex();
+    }
+
+    /**
+     * Picks up the latest listing of the handler's current directory, what
+     * the book index learned since the last frame and the preview once it
+     * has been parsed.
+     */
+    void update() {
+        pollPreview();
+        if (this.searching) {
+            updateSearch();
+            return;
+        }
+        File path = this.fileHandler.currentPath;
+        DirectorySnapshot snapshot = this.fileHandler.listFiles(path);
+        int indexVersion = this.bookIndex.getVersion();
+        if (snapshot == this.snapshot && indexVersion == this.indexVersion && !this.listChanged)
+            return;
+        if (snapshot != this.snapshot && !snapshot.isLoading() && path.getAbsoluteFile().equals(this.bookIndex.getBooksDirectory()))
+            this.bookIndex.refresh();
+        this.snapshot = snapshot;
+        this.indexVersion = indexVersion;
+        this.listChanged = false;
+
+        // Directories stay on top, by name, whatever the files are sorted by
+        List<DirectoryEntry> directories = new ArrayList<DirectoryEntry>();
+        List<SortedFile> files = new ArrayList<SortedFile>();
+        for (DirectoryEntry entry : snapshot.getEntries()) {
+            if (entry.isDirectory()) {
+                directories.add(entry);
+            } else {
+                files.add(new SortedFile(entry, indexed(entry)));
+            }
+        }
+        Collections.sort(directories, BY_NAME);
+        Collections.sort(files, this.sortOrder);
+        List<DirectoryEntry> entries = new ArrayList<DirectoryEntry>(directories);
+        for (SortedFile file : files)
+            entries.add(file.entry);
+        this.entries = entries;
+
+        this.slotLabels = new String[entries.size()];
+        this.slotColors = new int[entries.size()];
+        this.slotPages = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            DirectoryEntry entry = entries.get(i);
+            this.slotLabels[i] = Book.truncateStringPixels(entry.getName(), "...", LABEL_WIDTH, false);
+            this.slotColors[i] = entry.isFile() ? FILE_COLOR : DIRECTORY_COLOR;
+        }
+        if (path != this.listedPath) {
+            this.listedPath = path;
+            this.pathLabel = Book.truncateStringPixels(path.getAbsolutePath(), "...", LABEL_WIDTH, true);
+        }
+    }
+
+    // Searches again when the query changed or the index learned something
+    private void updateSearch() {
+        int indexVersion = this.bookIndex.getVersion();
+        if (indexVersion == this.indexVersion && !this.listChanged)
+            return;
+        this.indexVersion = indexVersion;
+        this.listChanged = false;
+
+        List<SearchHit> hits = this.bookIndex.search(this.searchQuery);
+        List<DirectoryEntry> entries = new ArrayList<DirectoryEntry>(hits.size());
+        List<String> labels = new ArrayList<String>(hits.size());
+        List<Integer> pages = new ArrayList<Integer>(hits.size());
+        for (SearchHit hit : hits) {
+            BookIndexEntry indexed = this.bookIndex.get(hit.getFile());
+            if (indexed == null)
+                continue;
+            String name = indexed.getTitle().isEmpty() ? hit.getFile().getName() : indexed.getTitle();
+            entries.add(new DirectoryEntry(indexed.getFile(), false, indexed.getSize(), indexed.getLastModified()));
+            labels.add(Book.truncateStringPixels("Page " + (hit.getPage() + 1) + ": " + name, "...", LABEL_WIDTH, false));
+            pages.add(hit.getPage());
+        }
+        this.entries = entries;
+        this.slotLabels = labels.toArray(new String[labels.size()]);
+        this.slotColors = new int[entries.size()];
+        this.slotPages = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            this.slotColors[i] = FILE_COLOR;
+            this.slotPages[i] = pages.get(i);
+        }
+        if (this.searchQuery.trim().isEmpty()) {
+            this.summaryLabel = "Type to search saved books";
+        } else if (entries.isEmpty()) {
+            this.summaryLabel = "No matching pages";
+        } else {
+            this.summaryLabel = entries.size() + (entries.size() == 1 ? " matching page" : " matching pages");
+        }
+    }
+
+    boolean isSearching() {
+        return this.searching;
+    }
+
+    /**
+     * Switches between listing the current directory and listing the pages
+     * that match the search query.
+     */
+    void setSearching(boolean searching) {
+        if (searching == this.searching)
+            return;
+        this.searching = searching;
+        this.listChanged = true;
+        clearPreview();
+    }
+
+    void setSearchQuery(String query) {
+        if (query.equals(this.searchQuery))
+            return;
+        this.searchQuery = query;
+        this.listChanged = true;
+        clearPreview();
+    }
+
+    List<DirectoryEntry> getEntries() {
+        return this.entries;
+    }
+
+    String getSortLabel() {
+        return "Sort: " + this.sortOrder.label;
+    }
+
+    /**
+     * Switches to the next way of sorting the files.
+     */
+    void cycleSortOrder() {
+        SortOrder[] orders = SortOrder.values();
+        this.sortOrder = orders[(this.sortOrder.ordinal() + 1) % orders.length];
+        this.listChanged = true;
+    }
+
+    // The index entry of a file, if it still describes the file as listed
+    private BookIndexEntry indexed(DirectoryEntry entry) {
+        BookIndexEntry indexed = this.bookIndex.get(entry.getFile());
+        if (indexed == null || !indexed.matches(entry.getLastModified(), entry.getSize()))
+            return null;
+        return indexed;
+    }
+
+    /**
+     * Label of a list row, where row 0 leads to the parent directory, or
+     * sums up the search, and the files follow.
+     */
+    String getSlotLabel(int slotNum) {
+        if (slotNum == 0)
+            return this.searching ? this.summaryLabel : PARENT_LABEL;
+        return this.slotLabels[slotNum - 1];
+    }
+
+    int getSlotColor(int slotNum) {
+        if (slotNum == 0)
+            return this.searching ? SUMMARY_COLOR : PARENT_COLOR;
+        return this.slotColors[slotNum - 1];
+    }
+
+    /**
+     * Page the file of a row should be previewed and opened at.
+     */
+    int getSlotPage(int slotNum) {
+        return slotNum == 0 ? 0 : this.slotPages[slotNum - 1];
+    }
+
+    String getPathLabel() {
+        return this.pathLabel;
+    }
+
+    void requestPreview(DirectoryEntry entry) {
+        requestPreview(entry, 0);
+    }
+
+    /**
+     * Starts loading the preview of the given file, showing the given page.
+     * Until it is parsed the preview reads as loading and there is no book
+     * to open.
+     */
+    void requestPreview(DirectoryEntry entry, int pageNum) {
+        clearPreview();
+        this.previewPageNum = pageNum;
+        this.previewRequest = PreviewLoader.getInstance().request(entry, this.fileHandler);
+        // Indexed books show what they are while the book itself loads
+        BookIndexEntry indexed = indexed(entry);
+        if (indexed != null) {
+            showPreview(indexed.getTitle(), indexed.getAuthor(), pageNum == 0 ? indexed.getSnippet() : LOADING_LABEL);
+        } else {
+            this.hasPreview = true;
+            this.previewAuthor = LOADING_LABEL;
+        }
+        pollPreview();
+    }
+
+    void clearPreview() {
+        if (this.previewRequest != null) {
+            this.previewRequest.cancel(false);
+            this.previewRequest = null;
+        }
+        this.previewBook = null;
+        this.previewPageNum = 0;
+        this.hasPreview = false;
+        this.previewTitle = "";
+        this.previewAuthor = "";
+        this.previewPage = "";
+    }
+
+    /**
+     * Whether a preview was asked for and has not been parsed yet.
+     */
+    boolean isPreviewLoading() {
+        return this.previewRequest != null;
+    }
+
+    /**
+     * The previewed book, or null while it loads or when the file is not a
+     * readable book. It is shared with the preview cache, so open a copy.
+     */
+    Book getPreviewBook() {
+        return this.previewBook;
+    }
+
+    /**
+     * Page the previewed book should be opened at.
+     */
+    int getPreviewPageNum() {
+        return this.previewPageNum;
+    }
+
+    private void pollPreview() {
+        if (this.previewRequest == null || !this.previewRequest.isDone())
+            return;
+        BookPreview preview = null;
+        try {
+            preview = this.previewRequest.getNow(null);
+        } catch (CancellationException e) {
+            // Replaced by a newer request
+        } catch (CompletionException e) {
+            System.out.println("[BookEditor] Cannot preview book: " + e.getCause());
+        }
+        this.previewRequest = null;
+        if (preview == null || preview.getBook() == null) {
+            clearPreview();
+            return;
+        }
+        this.previewBook = preview.getBook();
+        // The book may have lost pages since the index saw it
+        this.previewPageNum = Math.min(this.previewPageNum, this.previewBook.totalPages() - 1);
+        String page = this.previewPageNum == 0 ? preview.getFirstPage() : BookPreview.pageText(this.previewBook, this.previewPageNum);
+        showPreview(preview.getTitle(), preview.getAuthor(), page);
+    }
+
+    private void showPreview(String title, String author, String page) {
+        page = Book.truncateStringPixels(page, "...", LABEL_WIDTH, false);
+        this.hasPreview = !author.equals("") || !title.equals("") || !page.equals("");
+        this.previewAuthor = "Author: " + author;
+        this.previewTitle = "Title: " + title;
+        this.previewPage = "Page " + (this.previewPageNum + 1) + ": " + page;
+    }
+
+    boolean hasPreview() {
+        return this.hasPreview;
+    }
+
+    String getPreviewTitle() {
+        return this.previewTitle;
+    }
+
+    String getPreviewAuthor() {
+        return this.previewAuthor;
+    }
+
+    String getPreviewPage() {
+        return this.previewPage;
+    }
+
+    private static final Comparator<DirectoryEntry> BY_NAME = new Comparator<DirectoryEntry>() {
+        @Override
+        public int compare(DirectoryEntry a, DirectoryEntry b) {
+            return a.getName().compareToIgnoreCase(b.getName());
+        }
+    };
+
+    private static final class SortedFile {
+        private final DirectoryEntry entry;
+
+        // Null for files the book index does not know as listed
+        private final BookIndexEntry indexed;
+
+        SortedFile(DirectoryEntry entry, BookIndexEntry indexed) {
+            this.entry = entry;
+            this.indexed = indexed;
+        }
+
+        String title() {
+            return this.indexed == null ? this.entry.getName() : this.indexed.getTitle();
+        }
+
+        String author() {
+            return this.indexed == null ? "" : this.indexed.getAuthor();
+        }
+
+        int pageCount() {
+            return this.indexed == null ? -1 : this.indexed.getPageCount();
+        }
+    }
+
+    /**
+     * Orders of the files in the listing. All but the name order read the
+     * book index, so no file is opened to sort.
+     */
+    enum SortOrder implements Comparator<SortedFile> {
+        NAME("Name") {
+            @Override
+            public int compare(SortedFile a, SortedFile b) {
+                return BY_NAME.compare(a.entry, b.entry);
+            }
+        },
+        TITLE("Title") {
+            @Override
+            public int compare(SortedFile a, SortedFile b) {
+                int order = a.title().compareToIgnoreCase(b.title());
+                return order != 0 ? order : NAME.compare(a, b);
+            }
+        },
+        AUTHOR("Author") {
+            @Override
+            public int compare(SortedFile a, SortedFile b) {
+                int order = a.author().compareToIgnoreCase(b.author());
+                return order != 0 ? order : TITLE.compare(a, b);
+            }
+        },
+        NEWEST("Newest") {
+            @Override
+            public int compare(SortedFile a, SortedFile b) {
+                int order = Long.compare(b.entry.getLastModified(), a.entry.getLastModified());
+                return order != 0 ? order : NAME.compare(a, b);
+            }
+        },
+        PAGES("Pages") {
+            @Override
+            public int compare(SortedFile a, SortedFile b) {
+                int order = Integer.compare(b.pageCount(), a.pageCount());
+                return order != 0 ? order : TITLE.compare(a, b);
+            }
+        };
+
+        private final String label;
+
+        SortOrder(String label) {
+            this.label = label;
+        }
+    }
+}
@@ -2,7 +2,8 @@ package kamkeel.plugeditor.gui;
 
 /**
  * Simple file browser used for selecting books to load or preview. It displays
- * a scrollable list of files and directories from the configured book folder.
+ * a scrollable list of files and directories from the configured book folder,
+ * or in search mode the pages of saved books that contain the typed words.
  */
 
 import java.io.File;
@@ -10,16 +11,16 @@ import java.util.List;
 
 import kamkeel.plugeditor.FileHandler;
 import kamkeel.plugeditor.book.Book;
-import kamkeel.plugeditor.book.Page;
+import kamkeel.plugeditor.storage.DirectoryEntry;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiButton;
 import net.minecraft.client.gui.GuiScreen;
 import net.minecraft.client.gui.GuiSlot;
+import net.minecraft.client.gui.GuiTextField;
 import net.minecraft.client.renderer.Tessellator;
+import org.lwjgl.input.Keyboard;
 
 public class GuiFileBrowser extends GuiScreen {
-    private List<File> listItems;
-
     private ScrollList scrollList;
 
     public int slotSelected = -1;
@@ -32,23 +33,30 @@ public class GuiFileBrowser extends GuiScreen {
 
     private static final int BTN_CANCEL = 1;
 
+    private static final int BTN_SORT = 2;
+
+    private static final int BTN_SEARCH = 3;
+
+    private static final int SEARCH_MAX_LENGTH = 64;
+
     private GuiButton btnLoad;
 
     private GuiButton btnCancel;
 
-    private FileHandler fileHandler = new FileHandler();
+    private GuiButton btnSort;
 
-    private GuiPlugBook parentScreen;
+    private GuiButton btnSearch;
 
-    private Book tempBook;
+    private GuiTextField searchField;
 
-    private String displayPath = "";
+    private FileHandler fileHandler = new FileHandler();
 
-    private String previewTitle = "";
+    private GuiPlugBook parentScreen;
 
-    private String previewAuthor = "";
+    // Set when a book was opened before its preview finished loading
+    private boolean openWhenLoaded;
 
-    private String previewPage = "";
+    private final FileBrowserModel model = new FileBrowserModel(this.fileHandler);
 
     public GuiFileBrowser(GuiPlugBook _parentScreen) {
         this.parentScreen = _parentScreen;
@@ -56,35 +64,58 @@ public class GuiFileBrowser extends GuiScreen {
 
     public void initGui() {
         this.fileHandler.currentPath = this.fileHandler.getDefaultPath();
-        this.displayPath = this.fileHandler.currentPath.getAbsolutePath();
         this.buttonList.add(this.btnLoad = new GuiButton(0, this.width - 65, this.height - 50, 60, 20, "Load"));
         this.buttonList.add(this.btnCancel = new GuiButton(1, this.width - 65, this.height - 25, 60, 20, "Cancel"));
+        this.buttonList.add(this.btnSort = new GuiButton(BTN_SORT, this.width - 65, 5, 60, 20, this.model.getSortLabel()));
+        this.buttonList.add(this.btnSearch = new GuiButton(BTN_SEARCH, this.width - 130, 5, 60, 20, ""));
+        String query = this.searchField == null ? "" : this.searchField.getText();
+        this.searchField = new GuiTextField(this.fontRendererObj, this.width / 2 - 100, 10, 200, 16);
+        this.searchField.setMaxStringLength(SEARCH_MAX_LENGTH);
+        this.searchField.setText(query);
+        updateSearchControls();
+        Keyboard.enableRepeatEvents(true);
         int rootNum = 100;
         List<File> roots = this.fileHandler.getValidRoots();
         for (File root : roots) {
             this.buttonList.add(new GuiButton(rootNum, 5, 35 + 21 * (rootNum - 100), 50, 20, root.getAbsolutePath()));
             rootNum++;
         }
-        populateFileList();
+        this.fileHandler.getBookIndex().refresh();
+        this.model.update();
         this.scrollList = new ScrollList();
         this.scrollList.registerScrollButtons(4, 5);
     }
 
-    private void populateFileList() {
-        this.listItems = this.fileHandler.listFiles(this.fileHandler.currentPath);
+    public void onGuiClosed() {
+        Keyboard.enableRepeatEvents(false);
     }
 
-    private void loadPreview(File file) {
-        this.tempBook = this.fileHandler.loadBook(file);
-        if (this.tempBook != null) {
-            this.previewAuthor = this.tempBook.author;
-            this.previewTitle = this.tempBook.title;
-            String firstPage = Book.removeFormatting(((Page) this.tempBook.pages.get(0)).asString().replaceAll("\n", " "));
-            this.previewPage = Book.truncateStringPixels(firstPage, "...", 200, false);
-        } else {
-            this.previewTitle = "";
-            this.previewAuthor = "";
-            this.previewPage = "";
+    public void updateScreen() {
+        this.searchField.updateCursorCounter();
+    }
+
+    private void setSearching(boolean searching) {
+        this.model.setSearching(searching);
+        this.slotSelected = -1;
+        this.openWhenLoaded = false;
+        updateSearchControls();
+    }
+
+    private void updateSearchControls() {
+        boolean searching = this.model.isSearching();
+        this.btnSearch.displayString = searching ? "Browse" : "Search";
+        // Hits are in index order, so there is nothing to sort
+        this.btnSort.enabled = !searching;
+        this.searchField.setFocused(searching);
+    }
+
+    private void openPreviewedBook() {
+        Book book = this.model.getPreviewBook();
+        if (book != null) {
+            this.parentScreen.setBook(book, this.model.getPreviewPageNum());
+            Minecraft.getMinecraft().displayGuiScreen(this.parentScreen);
+        } else if (this.model.isPreviewLoading()) {
+            this.openWhenLoaded = true;
         }
     }
 
@@ -93,21 +124,38 @@ public class GuiFileBrowser extends GuiScreen {
     }
 
     protected void keyTyped(char par1, int par2) {
-        if (par2 == 1)
+        if (par2 == 1) {
             goBackToParentGui();
+        } else if (this.model.isSearching() && this.searchField.textboxKeyTyped(par1, par2)) {
+            this.model.setSearchQuery(this.searchField.getText());
+            this.slotSelected = -1;
+        }
+    }
+
+    protected void mouseClicked(int mouseX, int mouseY, int mouseButton) {
+        super.mouseClicked(mouseX, mouseY, mouseButton);
+        if (this.model.isSearching())
+            this.searchField.mouseClicked(mouseX, mouseY, mouseButton);
     }
 
     public void drawScreen(int par1, int par2, float par3) {
-        this.displayPath = this.fileHandler.currentPath.getAbsolutePath();
-        this.btnLoad.enabled = (this.tempBook != null);
-        populateFileList();
+        this.model.update();
+        this.btnLoad.enabled = (this.model.getPreviewBook() != null);
+        if (this.openWhenLoaded && !this.model.isPreviewLoading()) {
+            this.openWhenLoaded = false;
+            openPreviewedBook();
+        }
         this.scrollList.drawScreen(par1, par2, par3);
         super.drawScreen(par1, par2, par3);
-        drawCenteredString(this.fontRendererObj, Book.truncateStringPixels(this.displayPath, "...", 200, true), this.width / 2, 20, 14540253);
-        if (!this.previewAuthor.equals("") || !this.previewTitle.equals("") || !this.previewPage.equals("")) {
-            drawCenteredString(this.fontRendererObj, "Author: " + this.previewAuthor, this.width / 2, this.height - 50, 16777215);
-            drawCenteredString(this.fontRendererObj, "Title: " + this.previewTitle, this.width / 2, this.height - 40, 16777215);
-            drawCenteredString(this.fontRendererObj, "Page 1: " + this.previewPage, this.width / 2, this.height - 30, 16777215);
+        if (this.model.isSearching()) {
+            this.searchField.drawTextBox();
+        } else {
+            drawCenteredString(this.fontRendererObj, this.model.getPathLabel(), this.width / 2, 20, 14540253);
+        }
+        if (this.model.hasPreview()) {
+            drawCenteredString(this.fontRendererObj, this.model.getPreviewAuthor(), this.width / 2, this.height - 50, 16777215);
+            drawCenteredString(this.fontRendererObj, this.model.getPreviewTitle(), this.width / 2, this.height - 40, 16777215);
+            drawCenteredString(this.fontRendererObj, this.model.getPreviewPage(), this.width / 2, this.height - 30, 16777215);
         }
     }
 
@@ -116,17 +164,26 @@ public class GuiFileBrowser extends GuiScreen {
             return;
         switch (buttonPressed.id) {
             case 0:
-                if (this.tempBook != null) {
-                    this.parentScreen.setBook(this.tempBook);
-                    Minecraft.getMinecraft().displayGuiScreen(this.parentScreen);
-                }
+                openPreviewedBook();
                 break;
             case 1:
                 Minecraft.getMinecraft().displayGuiScreen(this.parentScreen);
                 break;
+            case BTN_SORT:
+                this.model.cycleSortOrder();
+                this.btnSort.displayString = this.model.getSortLabel();
+                // The rows move, so the selection would point at another file
+                this.slotSelected = -1;
+                this.model.clearPreview();
+                break;
+            case BTN_SEARCH:
+                setSearching(!this.model.isSearching());
+                break;
         }
-        if (buttonPressed.id >= 100)
+        if (buttonPressed.id >= 100) {
+            setSearching(false);
             this.fileHandler.currentPath = new File(buttonPressed.displayString);
+        }
     }
 
     class ScrollList extends GuiSlot {
@@ -141,8 +198,8 @@ public class GuiFileBrowser extends GuiScreen {
             // Use floating point division to avoid truncation when calculating
             // how many slots should be visible.
             int minSlots = (int) Math.ceil(scrollHeight / 12.0);
-            if (GuiFileBrowser.this.listItems.size() >= minSlots)
-                return GuiFileBrowser.this.listItems.size();
+            if (GuiFileBrowser.this.model.getEntries().size() >= minSlots)
+                return GuiFileBrowser.this.model.getEntries().size();
             return minSlots;
         }
 
@@ -152,6 +209,11 @@ public class GuiFileBrowser extends GuiScreen {
 
         protected void elementClicked(int slotClicked, boolean doubleClicked, int clickXPos, int clickYPos) {
             setShowSelectionBox(true);
+            if (slotClicked == 0 && GuiFileBrowser.this.model.isSearching()) {
+                // The search summary row
+                setShowSelectionBox(false);
+                return;
+            }
             if (doubleClicked) {
                 if (slotClicked == 0) {
                     GuiFileBrowser.this.fileHandler.navigateUp();
@@ -159,34 +221,26 @@ public class GuiFileBrowser extends GuiScreen {
                     setShowSelectionBox(false);
                     return;
                 }
-                if (slotClicked <= GuiFileBrowser.this.listItems.size()) {
-                    File itemClicked = GuiFileBrowser.this.listItems.get(slotClicked - 1);
+                if (slotClicked <= GuiFileBrowser.this.model.getEntries().size()) {
+                    DirectoryEntry itemClicked = GuiFileBrowser.this.model.getEntries().get(slotClicked - 1);
                     if (itemClicked.isDirectory()) {
-                        GuiFileBrowser.this.fileHandler.currentPath = itemClicked;
+                        GuiFileBrowser.this.fileHandler.currentPath = itemClicked.getFile();
                         GuiFileBrowser.this.slotSelected = -1;
                         setShowSelectionBox(false);
                         return;
                     }
-                    if (GuiFileBrowser.this.tempBook != null) {
-                        GuiFileBrowser.this.parentScreen.setBook(GuiFileBrowser.this.tempBook);
-                        Minecraft.getMinecraft().displayGuiScreen(GuiFileBrowser.this.parentScreen);
-                    }
+                    GuiFileBrowser.this.openPreviewedBook();
                 }
-            } else if (slotClicked > 0 && slotClicked <= GuiFileBrowser.this.listItems.size()) {
-                File selectedFile = GuiFileBrowser.this.listItems.get(slotClicked - 1);
+            } else if (slotClicked > 0 && slotClicked <= GuiFileBrowser.this.model.getEntries().size()) {
+                DirectoryEntry selectedFile = GuiFileBrowser.this.model.getEntries().get(slotClicked - 1);
                 if (selectedFile.isFile() && !isSelected(slotClicked)) {
-                    GuiFileBrowser.this.loadPreview(selectedFile);
+                    GuiFileBrowser.this.openWhenLoaded = false;
+                    GuiFileBrowser.this.model.requestPreview(selectedFile, GuiFileBrowser.this.model.getSlotPage(slotClicked));
                 } else {
-                    GuiFileBrowser.this.previewTitle = "";
-                    GuiFileBrowser.this.previewAuthor = "";
-                    GuiFileBrowser.this.previewPage = "";
-                    GuiFileBrowser.this.tempBook = null;
+                    GuiFileBrowser.this.model.clearPreview();
                 }
             } else {
-                GuiFileBrowser.this.previewTitle = "";
-                GuiFileBrowser.this.previewAuthor = "";
-                GuiFileBrowser.this.previewPage = "";
-                GuiFileBrowser.this.tempBook = null;
+                GuiFileBrowser.this.model.clearPreview();
             }
             GuiFileBrowser.this.slotSelected = slotClicked;
         }
@@ -204,23 +258,10 @@ public class GuiFileBrowser extends GuiScreen {
         }
 
         protected void drawSlot(int slotNum, int p_148126_2_, int p_148126_3_, int p_148126_4_, Tessellator p_148126_5_, int p_148126_6_, int p_148126_7_) {
-            List<File> list = GuiFileBrowser.this.listItems;
-            if (slotNum > list.size())
+            FileBrowserModel model = GuiFileBrowser.this.model;
+            if (slotNum > model.getEntries().size())
                 return;
-            String slotText = "";
-            int color = 16777215;
-            if (slotNum == 0) {
-                slotText = "..";
-                color = 65280;
-            } else {
-                slotText = Book.truncateStringPixels(((File) list.get(slotNum - 1)).getName(), "...", 200, false);
-                if (((File) list.get(slotNum - 1)).isFile()) {
-                    color = 16711680;
-                } else {
-                    color = 65280;
-                }
-            }
-            GuiFileBrowser.this.drawString(GuiFileBrowser.this.fontRendererObj, slotText, p_148126_2_ + 2, p_148126_3_ + 1, color);
+            GuiFileBrowser.this.drawString(GuiFileBrowser.this.fontRendererObj, model.getSlotLabel(slotNum), p_148126_2_ + 2, p_148126_3_ + 1, model.getSlotColor(slotNum));
         }
     }
 }
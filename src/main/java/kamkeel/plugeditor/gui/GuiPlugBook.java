@@ -9,6 +9,7 @@ package kamkeel.plugeditor.gui;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import kamkeel.plugeditor.FileHandler;
 import kamkeel.plugeditor.Printer;
 import kamkeel.plugeditor.book.Book;
@@ -28,6 +29,8 @@ import net.minecraft.util.StringUtils;
 import org.lwjgl.input.Keyboard;
 import org.lwjgl.opengl.GL11;
 import kamkeel.plugeditor.constants.Buttons;
+import kamkeel.plugeditor.storage.BookSnapshot;
+import kamkeel.plugeditor.storage.EditJournal;
 import kamkeel.plugeditor.util.MinecraftBookUtil;
 
 public class GuiPlugBook extends GuiScreen {
@@ -36,7 +39,6 @@ public class GuiPlugBook extends GuiScreen {
     private int bookImageWidth = 192;
     private int bookImageHeight = 192;
     private static final ResourceLocation bookGuiTextures = new ResourceLocation("textures/gui/book.png");
-    private static final String PAGE_INDICATOR_TEMPLATE = "Page %d of %d";
     private int selectedPageA = -1;
     private int selectedPageB = -1;
 
@@ -74,11 +76,14 @@ public class GuiPlugBook extends GuiScreen {
     private NextPageButton btnPreviousPage;
 
     private Book book = new Book();
+    private final PageRenderModel renderModel = new PageRenderModel();
+    private final PageButtonLabels buttonLabels = new PageButtonLabels();
     private Book bookClipboard;
     private List<String> pageClipboard;
     private boolean heldBookIsWritable = false;
     private ItemStack mcBookObj;
     private FileHandler fileHandler = new FileHandler();
+    private final EditJournal journal = this.fileHandler.getEditJournal();
 
     public GuiPlugBook(Book _bookClipboard, List<String> _pageClipboard) {
         this.bookClipboard = _bookClipboard;
@@ -115,11 +120,28 @@ public class GuiPlugBook extends GuiScreen {
                     this.book.title = s;
             }
         }
+        // Edits left in the journal by a crash are saved as a book of their own
+        this.journal.recover().thenAccept(new Consumer<BookSnapshot>() {
+            @Override
+            public void accept(BookSnapshot recovered) {
+                if (recovered == null)
+                    return;
+                Printer.queuePrint(Printer.GOLD + "Recovered unsaved edits from before the game closed.");
+                GuiPlugBook.this.fileHandler.saveBookToGHBFile(recovered);
+            }
+        });
     }
 
     public void setBook(Book inBook) {
+        setBook(inBook, 0);
+    }
+
+    /**
+     * Opens a copy of the book at the start of the given page.
+     */
+    public void setBook(Book inBook, int pageNum) {
         this.book.clone(inBook);
-        this.book.cursorPage = 0;
+        this.book.cursorPage = Math.max(Math.min(pageNum, this.book.totalPages() - 1), 0);
         this.book.cursorLine = 0;
         this.book.cursorPosChars = 0;
     }
@@ -179,6 +201,7 @@ public class GuiPlugBook extends GuiScreen {
             this.buttonList.add(this.btnUnderline = new GuiButton(Buttons.BTN_UNDERLINE, getFormatButX(Buttons.BTN_UNDERLINE), formatButY, 20, 20, "\u00a7nU"));
             this.buttonList.add(this.btnItalic = new GuiButton(Buttons.BTN_ITALIC, getFormatButX(Buttons.BTN_ITALIC), formatButY, 20, 20, "\u00a7oI"));
             this.buttonList.add(this.btnResetFormat = new GuiButton(Buttons.BTN_RESET_FORMAT, getFormatButX(Buttons.BTN_RESET_FORMAT), formatButY, 100, 20, "Reset Formatting"));
+            this.journal.start(this.book);
         } else {
             this.buttonList.add(new GuiButton(Buttons.BTN_DONE, this.width / 2 - 100, 4 + this.bookImageHeight, 200, 20, "Done"));
         }
@@ -201,6 +224,7 @@ public class GuiPlugBook extends GuiScreen {
         Keyboard.enableRepeatEvents(false);
         if (!this.book.isEmpty() && this.heldBookIsWritable)
             this.book.sendBookToServer(false);
+        this.journal.finish();
     }
 
     protected void actionPerformed(GuiButton buttonPressed) {
@@ -288,8 +312,9 @@ public class GuiPlugBook extends GuiScreen {
                 return;
             case Buttons.BTN_COPY_ALL_TEXT:
                 StringBuilder sb = new StringBuilder();
-                for (Page page : book.pages) {
-                    sb.append(page.asString());
+                // Laid out, so the padding keeps each page's break in the copy
+                for (int i = 0; i < this.book.totalPages(); i++) {
+                    sb.append(this.book.getPage(i).asString());
                 }
                 setClipboardString(sb.toString());
                 return;
@@ -309,7 +334,7 @@ public class GuiPlugBook extends GuiScreen {
         int bookTextTop = 33;
         if (this.heldBookIsWritable && posX >= bookTextLeft && posX < bookTextLeft + 116 && posY >= bookTextTop && posY < bookTextTop + 116) {
             int rowGuess = (posY - bookTextTop) / 9;
-            Page currPage = this.book.pages.get(this.book.cursorPage);
+            Page currPage = this.book.getPage(this.book.cursorPage);
             if (rowGuess < 0) {
                 rowGuess = 0;
             } else if (rowGuess > currPage.lines.size() - 1) {
@@ -320,13 +345,10 @@ public class GuiPlugBook extends GuiScreen {
             int xOffset = posX - bookTextLeft;
             if (xOffset < 0)
                 xOffset = 0;
-            int colGuess = Line.sizeStringToApproxWidthBlind(currLine.getTextWithWrappedFormatting(), xOffset);
-            colGuess -= currLine.wrappedFormatting.length();
-            if (colGuess < 0)
-                colGuess = 0;
+            int colGuess = currLine.getCaretAt(xOffset);
             if (colGuess > 0 && currLine.text.charAt(colGuess - 1) == '\n')
                 colGuess--;
-            this.book.cursorPosChars = colGuess;
+            this.book.cursorPosChars = currLine.skipCodesBackward(colGuess);
         }
         super.mouseClicked(posX, posY, button);
     }
@@ -385,66 +407,40 @@ public class GuiPlugBook extends GuiScreen {
     public void updateScreen() {
         super.updateScreen();
         this.updateCount++;
+        this.journal.flush();
     }
 
     public void drawScreen(int par1, int par2, float par3) {
+        if (this.btnCopySelectedPages != null && (this.selectedPageA >= this.book.totalPages() || this.selectedPageB >= this.book.totalPages())) {
+            this.selectedPageA = -1;
+            this.selectedPageB = -1;
+        }
+        this.buttonLabels.update(this.pageClipboard.size(), this.selectedPageA, this.selectedPageB);
         if (this.heldBookIsWritable) {
             this.btnPasteBook.enabled = !this.bookClipboard.pages.isEmpty();
             this.btnPasteMultiplePages.enabled = !this.pageClipboard.isEmpty();
-
-            if (this.btnPasteMultiplePages.enabled) {
-                this.btnPasteMultiplePages.displayString = "Paste " + this.pageClipboard.size() + " Page" + ((this.pageClipboard.size() == 1) ? "" : "s");
-            } else {
-                this.btnPasteMultiplePages.displayString = "Paste Multiple";
-            }
+            this.btnPasteMultiplePages.displayString = this.buttonLabels.getPasteLabel();
         }
 
         // Update the copy selection controls when they are available
         if (this.btnCopySelectedPages != null) {
-            if (this.selectedPageA >= this.book.totalPages() || this.selectedPageB >= this.book.totalPages()) {
-                this.selectedPageA = -1;
-                this.selectedPageB = -1;
-            }
-
-            if (this.selectedPageA != -1 && this.selectedPageB != -1 && this.selectedPageA >= 0 && this.selectedPageA <= this.selectedPageB && this.selectedPageB < this.book.totalPages()) {
-                String xPages = (this.selectedPageB - this.selectedPageA + 1) + " Page" + ((this.selectedPageA != this.selectedPageB) ? "s" : "");
-                this.btnCopySelectedPages.displayString = "Copy " + xPages;
-                if (this.btnCutMultiplePages != null) {
-                    this.btnCutMultiplePages.displayString = "Cut " + xPages;
-                }
-                this.btnSelectPageA.displayString = "A: " + (this.selectedPageA + 1);
-                this.btnSelectPageB.displayString = "B: " + (this.selectedPageB + 1);
-            } else if (this.selectedPageA != -1) {
-                this.btnSelectPageA.displayString = "A: " + (this.selectedPageA + 1);
-                this.btnCopySelectedPages.displayString = "Copy This Page";
-                if (this.btnCutMultiplePages != null) {
-                    this.btnCutMultiplePages.displayString = "Cut This Page";
-                }
-            } else if (this.selectedPageB != -1) {
-                this.btnSelectPageB.displayString = "B: " + (this.selectedPageB + 1);
-                this.btnCopySelectedPages.displayString = "Copy This Page";
-                if (this.btnCutMultiplePages != null) {
-                    this.btnCutMultiplePages.displayString = "Cut This Page";
-                }
-            } else {
-                this.btnCopySelectedPages.displayString = "Copy This Page";
-                if (this.btnCutMultiplePages != null) {
-                    this.btnCutMultiplePages.displayString = "Cut This Page";
-                }
-                this.btnSelectPageA.displayString = "A";
-                this.btnSelectPageB.displayString = "B";
+            this.btnCopySelectedPages.displayString = this.buttonLabels.getCopyLabel();
+            if (this.btnCutMultiplePages != null) {
+                this.btnCutMultiplePages.displayString = this.buttonLabels.getCutLabel();
             }
+            this.btnSelectPageA.displayString = this.buttonLabels.getPageALabel();
+            this.btnSelectPageB.displayString = this.buttonLabels.getPageBLabel();
         }
         GL11.glColor4f(1.0F, 1.0F, 1.0F, 1.0F);
         this.mc.getTextureManager().bindTexture(bookGuiTextures);
         int bookLeftSide = (this.width - this.bookImageWidth) / 2;
         byte b0 = 2;
         drawTexturedModalRect(bookLeftSide, b0, 0, 0, this.bookImageWidth, this.bookImageHeight);
-        String currPageText = this.book.getCurrPageAsMCString();
-        this.fontRendererObj.drawSplitString(currPageText, bookLeftSide + 36, b0 + 16 + 16, 116, 0);
-        String pageIndicator = String.format("Page %d of %d", new Object[]{Integer.valueOf(this.book.cursorPage + 1), Integer.valueOf(this.book.totalPages())});
-        int pageIndicatorWidth = this.fontRendererObj.getStringWidth(pageIndicator);
-        this.fontRendererObj.drawString(pageIndicator, bookLeftSide - pageIndicatorWidth + this.bookImageWidth - 44, b0 + 16, 0);
+        // Also pulls the cursor back onto the book if it ran past either end
+        this.book.getCurrPageAsMCString();
+        this.renderModel.update(this.fontRendererObj, this.book.getPage(this.book.cursorPage), this.book.cursorPage, this.book.totalPages());
+        this.renderModel.drawText(bookLeftSide + 36, b0 + 16 + 16);
+        this.renderModel.drawPageIndicator(bookLeftSide + this.bookImageWidth - 44, b0 + 16);
         if (this.heldBookIsWritable) {
             int cursorX1 = bookLeftSide + 35 + this.book.getCursorX();
             int cursorX2 = cursorX1 + 1;
@@ -0,0 +1,70 @@
+package kamkeel.plugeditor.gui;
+
+/**
+ * Labels of the GuiPlugBook buttons that show the page clipboard and the
+ * selected page range. They are rebuilt only when the counts or the
+ * selection change, so drawScreen can hand the same strings to the buttons
+ * every frame.
+ */
+final class PageButtonLabels {
+    private int pastePages = -1;
+
+    private int selectedPageA = -2;
+
+    private int selectedPageB = -2;
+
+    private String pasteLabel;
+
+    private String copyLabel;
+
+    private String cutLabel;
+
+    private String pageALabel;
+
+    private String pageBLabel;
+
+    void update(int pastePages, int selectedPageA, int selectedPageB) {
+        if (this.pastePages != pastePages) {
+            this.pastePages = pastePages;
+            if (pastePages > 0) {
+                this.pasteLabel = "Paste " + pastePages + " Page" + ((pastePages == 1) ? "" : "s");
+            } else {
+                this.pasteLabel = "Paste Multiple";
+            }
+        }
+        if (this.selectedPageA != selectedPageA || this.selectedPageB != selectedPageB) {
+            this.selectedPageA = selectedPageA;
+            this.selectedPageB = selectedPageB;
+            if (selectedPageA >= 0 && selectedPageA <= selectedPageB) {
+                String xPages = (selectedPageB - selectedPageA + 1) + " Page" + ((selectedPageA != selectedPageB) ? "s" : "");
+                this.copyLabel = "Copy " + xPages;
+                this.cutLabel = "Cut " + xPages;
+            } else {
+                this.copyLabel = "Copy This Page";
+                this.cutLabel = "Cut This Page";
+            }
+            this.pageALabel = (selectedPageA != -1) ? "A: " + (selectedPageA + 1) : "A";
+            this.pageBLabel = (selectedPageB != -1) ? "B: " + (selectedPageB + 1) : "B";
+        }
+    }
+
+    String getPasteLabel() {
+        return this.pasteLabel;
+    }
+
+    String getCopyLabel() {
+        return this.copyLabel;
+    }
+
+    String getCutLabel() {
+        return this.cutLabel;
+    }
+
+    String getPageALabel() {
+        return this.pageALabel;
+    }
+
+    String getPageBLabel() {
+        return this.pageBLabel;
+    }
+}
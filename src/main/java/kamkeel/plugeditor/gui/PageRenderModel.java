@@ -0,0 +1,92 @@
+package kamkeel.plugeditor.gui;
+
+import java.util.List;
+
+import kamkeel.plugeditor.book.BookController;
+import kamkeel.plugeditor.book.Page;
+import net.minecraft.client.gui.FontRenderer;
+
+/**
+ * What GuiPlugBook draws for the current page: the page text wrapped the way
+ * drawSplitString would wrap it, and the page indicator. Both are kept until
+ * the page is edited, another page is shown or the font changes, so frames
+ * in between only issue the draw calls.
+ */
+final class PageRenderModel {
+    static final int TEXT_WIDTH = 116;
+
+    static final int TEXT_COLOR = 0;
+
+    private static final String PAGE_INDICATOR_TEMPLATE = "Page %d of %d";
+
+    private FontRenderer fontRenderer;
+
+    private boolean unicodeFlag;
+
+    private int fontVersion;
+
+    private Page page;
+
+    private int pageVersion = -1;
+
+    private int pageNumber = -1;
+
+    private int totalPages = -1;
+
+    private List<String> lines;
+
+    private String pageIndicator;
+
+    private int pageIndicatorWidth;
+
+    /**
+     * Brings the model up to date with the page about to be drawn. Rewraps
+     * only when the page text or the font changed since the last frame.
+     */
+    void update(FontRenderer fontRenderer, Page page, int pageNumber, int totalPages) {
+        int fontVersion = BookController.getInstance().getFontVersion();
+        boolean fontChanged = this.fontRenderer != fontRenderer || this.unicodeFlag != fontRenderer.getUnicodeFlag() || this.fontVersion != fontVersion;
+        if (fontChanged) {
+            this.fontRenderer = fontRenderer;
+            this.unicodeFlag = fontRenderer.getUnicodeFlag();
+            this.fontVersion = fontVersion;
+        }
+        if (fontChanged || this.page != page || this.pageVersion != page.getVersion()) {
+            this.page = page;
+            this.pageVersion = page.getVersion();
+            this.lines = wrap(fontRenderer, page.asString());
+        }
+        if (fontChanged || this.pageNumber != pageNumber || this.totalPages != totalPages) {
+            this.pageNumber = pageNumber;
+            this.totalPages = totalPages;
+            this.pageIndicator = String.format(PAGE_INDICATOR_TEMPLATE, new Object[]{Integer.valueOf(pageNumber + 1), Integer.valueOf(totalPages)});
+            this.pageIndicatorWidth = fontRenderer.getStringWidth(this.pageIndicator);
+        }
+    }
+
+    /**
+     * Draws the page text with its top left corner at the given position.
+     */
+    void drawText(int x, int y) {
+        for (int i = 0; i < this.lines.size(); i++) {
+            this.fontRenderer.drawString(this.lines.get(i), x, y, TEXT_COLOR);
+            y += this.fontRenderer.FONT_HEIGHT;
+        }
+    }
+
+    /**
+     * Draws the page indicator right aligned to the given position.
+     */
+    void drawPageIndicator(int right, int y) {
+        this.fontRenderer.drawString(this.pageIndicator, right - this.pageIndicatorWidth, y, TEXT_COLOR);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> wrap(FontRenderer fontRenderer, String text) {
+        // drawSplitString drops trailing newlines before wrapping
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == '\n')
+            end--;
+        return fontRenderer.listFormattedStringToWidth(text.substring(0, end), TEXT_WIDTH);
+    }
+}
@@ -0,0 +1,114 @@
+package kamkeel.plugeditor.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a file so that it is either replaced whole or not at all. The
+ * bytes go to a temporary file next to the target, which is moved over the
+ * target only once everything is written, so a crash or a full disk leaves
+ * the old file, never a truncated one. With sync on, the temporary file is
+ * also forced to the disk before the move, which keeps the new file through
+ * a power loss but makes each write wait for the disk.
+ * <p>
+ * Usage: write to {@link #getStream()}, call {@link #commit()}, and always
+ * {@link #close()}, which drops the temporary file if commit was not
+ * reached.
+ */
+public final class AtomicFileWriter implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+
+    private static volatile boolean syncWrites = true;
+
+    private final File target;
+
+    private final File temp;
+
+    private final FileChannel channel;
+
+    private final OutputStream stream;
+
+    private final boolean sync;
+
+    private boolean committed;
+
+    private AtomicFileWriter(File target, File temp, FileChannel channel, boolean sync) {
+        this.target = target;
+        this.temp = temp;
+        this.channel = channel;
+        this.stream = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+        this.sync = sync;
+    }
+
+    /**
+     * Whether writes force their data to the disk before replacing the
+     * target. Set from the mod configuration; on by default.
+     */
+    public static void setSyncWrites(boolean sync) {
+        syncWrites = sync;
+    }
+
+    public static boolean isSyncWrites() {
+        return syncWrites;
+    }
+
+    public static AtomicFileWriter open(File target) throws IOException {
+        return open(target, syncWrites);
+    }
+
+    public static AtomicFileWriter open(File target, boolean sync) throws IOException {
+        File directory = target.getAbsoluteFile().getParentFile();
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+        // Same directory as the target, so the move never crosses file systems
+        File temp = File.createTempFile("." + target.getName() + ".", ".tmp", directory);
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        return new AtomicFileWriter(target, temp, channel, sync);
+    }
+
+    public OutputStream getStream() {
+        return this.stream;
+    }
+
+    /**
+     * Finishes the temporary file and moves it over the target.
+     */
+    public void commit() throws IOException {
+        this.stream.flush();
+        if (this.sync)
+            this.channel.force(true);
+        this.channel.close();
+        try {
+            Files.move(this.temp.toPath(), this.target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(this.temp.toPath(), this.target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        this.committed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.committed)
+            return;
+        try {
+            this.channel.close();
+        } finally {
+            this.temp.delete();
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package kamkeel.plugeditor.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import kamkeel.plugeditor.FileHandler;
+import kamkeel.plugeditor.book.Book;
+
+/**
+ * Title, author, page count and first-page snippet of every book in the
+ * SavedBooks folder, kept in an index file so the browser can list and sort
+ * them without parsing any. The index is brought up to date in the
+ * background: a refresh parses only the books whose modification time or
+ * size changed since they were indexed, and saving a book indexes it from
+ * the book in memory. The same file holds the search index of the books'
+ * words, which is kept in step with the entries. Only the index thread
+ * changes either: it changes copies and then publishes them whole, so
+ * lookups and searches read the published ones without waiting on it.
+ */
+public final class BookIndex {
+    private static final int MAGIC = 0x50424958;
+
+    private static final int FORMAT_VERSION = 2;
+
+    public static final int SNIPPET_LENGTH = 128;
+
+    public static final int MAX_SEARCH_HITS = 500;
+
+    private static final Map<File, BookIndex> OPEN = new HashMap<File, BookIndex>();
+
+    private final File indexFile;
+
+    private final File booksDirectory;
+
+    // Never changed once published, only replaced
+    private volatile Map<File, BookIndexEntry> entries = Collections.emptyMap();
+
+    private volatile SearchIndex searchIndex = new SearchIndex();
+
+    // Copy of the search index being changed by the index thread, if any
+    private SearchIndex changedSearchIndex;
+
+    private final ExecutorService executor = StorageThreads.newExecutor("PlugEditor book index");
+
+    private boolean refreshQueued;
+
+    private volatile int version;
+
+    private BookIndex(File indexFile, File booksDirectory) {
+        this.indexFile = indexFile;
+        this.booksDirectory = booksDirectory;
+    }
+
+    /**
+     * Returns the index stored in the given file, reading it in the
+     * background the first time it is opened.
+     */
+    public static synchronized BookIndex open(File indexFile, File booksDirectory) {
+        File key = indexFile.getAbsoluteFile();
+        BookIndex index = OPEN.get(key);
+        if (index == null) {
+            index = new BookIndex(key, booksDirectory.getAbsoluteFile());
+            OPEN.put(key, index);
+            final BookIndex opened = index;
+            index.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    opened.read();
+                }
+            });
+            index.refresh();
+        }
+        return index;
+    }
+
+    public File getBooksDirectory() {
+        return this.booksDirectory;
+    }
+
+    /**
+     * Bumped whenever entries are added, changed or removed.
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
+    /**
+     * The entry of the given file, which may describe an older version of it.
+     */
+    public BookIndexEntry get(File file) {
+        return this.entries.get(file.getAbsoluteFile());
+    }
+
+    public List<BookIndexEntry> getEntries() {
+        return new ArrayList<BookIndexEntry>(this.entries.values());
+    }
+
+    /**
+     * Pages of the indexed books that hold every word of the query, the last
+     * of which may be the start of a word. Words match whatever their case
+     * and formatting, and only books indexed so far are found. Searches the
+     * published index, so it never waits for books being indexed.
+     */
+    public List<SearchHit> search(String query) {
+        return this.searchIndex.search(query, MAX_SEARCH_HITS);
+    }
+
+    /**
+     * Brings the index in line with the books folder in the background.
+     * Calls made while a refresh is waiting to run are folded into it.
+     */
+    public synchronized void refresh() {
+        if (this.refreshQueued)
+            return;
+        this.refreshQueued = true;
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        });
+    }
+
+    /**
+     * Indexes a book that was just written to the given file, from the
+     * snapshot it was written from rather than by reading the file back.
+     */
+    public void update(final File file, final BookSnapshot book) {
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BookIndexEntry entry;
+                List<String> pageTexts = pageTexts(book);
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                    entry = new BookIndexEntry(file.getAbsoluteFile(), attributes.lastModifiedTime().toMillis(), attributes.size(), book.getTitle(), book.getAuthor(), book.getPageCount(), snippet(pageTexts));
+                } catch (IOException e) {
+                    return;
+                }
+                Map<File, BookIndexEntry> entries = new HashMap<File, BookIndexEntry>(BookIndex.this.entries);
+                entries.put(entry.getFile(), entry);
+                changeSearchIndex().add(entry.getFile(), searchText(pageTexts));
+                publish(entries);
+                write();
+            }
+        });
+    }
+
+    private void scan() {
+        synchronized (this) {
+            this.refreshQueued = false;
+        }
+        Map<File, BookIndexEntry> known = this.entries;
+        Map<File, BookIndexEntry> scanned = new HashMap<File, BookIndexEntry>();
+        boolean changed = false;
+        try {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(this.booksDirectory.toPath());
+            try {
+                for (Path path : stream) {
+                    File file = path.toFile().getAbsoluteFile();
+                    if (!isBookFile(file))
+                        continue;
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (!attributes.isRegularFile())
+                        continue;
+                    long lastModified = attributes.lastModifiedTime().toMillis();
+                    BookIndexEntry entry = known.get(file);
+                    if (entry == null || !entry.matches(lastModified, attributes.size())) {
+                        entry = index(file, lastModified, attributes.size());
+                        changed = true;
+                    }
+                    scanned.put(file, entry);
+                }
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            // A missing folder has no books
+        } catch (DirectoryIteratorException e) {
+            return;
+        }
+        changed |= scanned.size() != known.size();
+        if (!changed)
+            return;
+        for (File file : known.keySet()) {
+            if (!scanned.containsKey(file))
+                changeSearchIndex().remove(file);
+        }
+        publish(scanned);
+        write();
+    }
+
+    private BookIndexEntry index(File file, long lastModified, long size) {
+        String title = "";
+        String author = "";
+        List<String> pageTexts = Collections.emptyList();
+        try {
+            if (file.getName().endsWith(PBKFile.EXTENSION)) {
+                // Read straight from the file, with no need to lay the pages out
+                PBKFile pbk = PBKFile.open(file);
+                title = pbk.getTitle();
+                author = pbk.getAuthor();
+                pageTexts = new ArrayList<String>(pbk.getPageCount());
+                for (int i = 0; i < pbk.getPageCount(); i++)
+                    pageTexts.add(pbk.getPage(i));
+            } else {
+                // Not through the file handler, which prints each load and reports
+                // failures in chat; failures here are logged once below
+                Book loaded = file.getName().endsWith(".ghb") ? readGHB(file) : FileHandler.bookwormBook(FileHandler.readLines(file));
+                if (loaded != null) {
+                    title = loaded.title;
+                    author = loaded.author;
+                    pageTexts = pageTexts(BookSnapshot.of(loaded));
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("[BookEditor] Cannot index " + file + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.println("[BookEditor] Cannot index " + file + ": " + e);
+        }
+        changeSearchIndex().add(file, searchText(pageTexts));
+        return new BookIndexEntry(file, lastModified, size, title, author, pageTexts.size(), snippet(pageTexts));
+    }
+
+    private static Book readGHB(File file) throws IOException {
+        Reader reader = new FileReader(file);
+        try {
+            return GHBReader.read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The copy of the search index to change, made from the published one
+     * on the first change since it was last published.
+     */
+    private SearchIndex changeSearchIndex() {
+        if (this.changedSearchIndex == null)
+            this.changedSearchIndex = this.searchIndex.copy();
+        return this.changedSearchIndex;
+    }
+
+    /**
+     * Replaces the entries and the search index with their changed copies.
+     */
+    private void publish(Map<File, BookIndexEntry> entries) {
+        this.entries = Collections.unmodifiableMap(entries);
+        if (this.changedSearchIndex != null) {
+            this.searchIndex = this.changedSearchIndex;
+            this.changedSearchIndex = null;
+        }
+        this.version++;
+    }
+
+    private static List<String> pageTexts(BookSnapshot book) {
+        List<String> pages = new ArrayList<String>(book.getPageCount());
+        for (int i = 0; i < book.getPageCount(); i++)
+            pages.add(book.getPageText(i));
+        return pages;
+    }
+
+    private static String snippet(List<String> pageTexts) {
+        if (pageTexts.isEmpty())
+            return "";
+        String text = Book.removeFormatting(pageTexts.get(0).replace('\n', ' '));
+        return text.length() <= SNIPPET_LENGTH ? text : text.substring(0, SNIPPET_LENGTH);
+    }
+
+    // Text of each page without formatting codes, as the search index reads it
+    private static List<String> searchText(List<String> pageTexts) {
+        List<String> pages = new ArrayList<String>(pageTexts.size());
+        for (String text : pageTexts)
+            pages.add(Book.removeFormatting(text));
+        return pages;
+    }
+
+    private static boolean isBookFile(File file) {
+        String name = file.getName();
+        return name.endsWith(".ghb") || name.endsWith(".txt") || name.endsWith(PBKFile.EXTENSION);
+    }
+
+    private void read() {
+        if (!this.indexFile.isFile())
+            return;
+        Map<File, BookIndexEntry> read = new HashMap<File, BookIndexEntry>();
+        SearchIndex searchRead = new SearchIndex();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.indexFile)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                    return;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    File file = new File(in.readUTF());
+                    long lastModified = in.readLong();
+                    long size = in.readLong();
+                    String title = in.readUTF();
+                    String author = in.readUTF();
+                    int pageCount = in.readInt();
+                    String snippet = in.readUTF();
+                    read.put(file, new BookIndexEntry(file, lastModified, size, title, author, pageCount, snippet));
+                }
+                searchRead.read(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Rebuilt from the books by the next refresh
+            System.out.println("[BookEditor] Cannot read book index " + this.indexFile + ": " + e.getMessage());
+            return;
+        }
+        // Runs before any refresh or update, which share the executor
+        this.changedSearchIndex = searchRead;
+        publish(read);
+    }
+
+    private void write() {
+        // Both were published together by the index thread, which runs this
+        Map<File, BookIndexEntry> entries = this.entries;
+        SearchIndex searchIndex = this.searchIndex;
+        try {
+            // Serialized in memory so a failed write leaves the old file whole
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (BookIndexEntry entry : entries.values()) {
+                out.writeUTF(entry.getFile().getPath());
+                out.writeLong(entry.getLastModified());
+                out.writeLong(entry.getSize());
+                out.writeUTF(entry.getTitle());
+                out.writeUTF(entry.getAuthor());
+                out.writeInt(entry.getPageCount());
+                out.writeUTF(entry.getSnippet());
+            }
+            searchIndex.write(out);
+            AtomicFileWriter file = AtomicFileWriter.open(this.indexFile);
+            try {
+                bytes.writeTo(file.getStream());
+                file.commit();
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            System.out.println("[BookEditor] Cannot write book index " + this.indexFile + ": " + e.getMessage());
+        }
+    }
+}
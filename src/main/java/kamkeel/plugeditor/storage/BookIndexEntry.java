@@ -0,0 +1,73 @@
+package kamkeel.plugeditor.storage;
+
+import java.io.File;
+
+/**
+ * What the book index knows about one saved book, as of the modification
+ * time and size it was indexed at. Files that could not be read as a book
+ * are indexed too, with no pages, so they are not parsed again until they
+ * change.
+ */
+public final class BookIndexEntry {
+    private final File file;
+
+    private final long lastModified;
+
+    private final long size;
+
+    private final String title;
+
+    private final String author;
+
+    private final int pageCount;
+
+    private final String snippet;
+
+    public BookIndexEntry(File file, long lastModified, long size, String title, String author, int pageCount, String snippet) {
+        this.file = file;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.title = title;
+        this.author = author;
+        this.pageCount = pageCount;
+        this.snippet = snippet;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public long getLastModified() {
+        return this.lastModified;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public String getTitle() {
+        return this.title;
+    }
+
+    public String getAuthor() {
+        return this.author;
+    }
+
+    public int getPageCount() {
+        return this.pageCount;
+    }
+
+    /**
+     * Start of the first page without formatting codes, on a single line.
+     */
+    public String getSnippet() {
+        return this.snippet;
+    }
+
+    /**
+     * Whether this entry still describes a file with the given attributes.
+     */
+    public boolean matches(long lastModified, long size) {
+        return this.lastModified == lastModified && this.size == size;
+    }
+}
@@ -0,0 +1,68 @@
+package kamkeel.plugeditor.storage;
+
+import kamkeel.plugeditor.book.Book;
+
+/**
+ * A book parsed for the file browser, with the title, author and first page
+ * the browser shows for it. The book is shared with every later request for
+ * the same file, so it must be copied rather than edited.
+ */
+public final class BookPreview {
+    private final Book book;
+
+    private final String title;
+
+    private final String author;
+
+    private final String firstPage;
+
+    private final int weight;
+
+    BookPreview(Book book, String firstPage) {
+        this.book = book;
+        this.title = book == null ? "" : book.title;
+        this.author = book == null ? "" : book.author;
+        this.firstPage = firstPage;
+        this.weight = book == null ? 0 : book.getText().length();
+    }
+
+    /**
+     * The parsed book, or null when the file could not be read as one.
+     */
+    public Book getBook() {
+        return this.book;
+    }
+
+    public String getTitle() {
+        return this.title;
+    }
+
+    public String getAuthor() {
+        return this.author;
+    }
+
+    /**
+     * Text of the first page without formatting codes, on a single line.
+     */
+    public String getFirstPage() {
+        return this.firstPage;
+    }
+
+    int getWeight() {
+        return this.weight;
+    }
+
+    /**
+     * The first page of a book without formatting codes, on a single line.
+     */
+    static String firstPageText(Book book) {
+        return pageText(book, 0);
+    }
+
+    /**
+     * A page of a book without formatting codes, on a single line.
+     */
+    public static String pageText(Book book, int pageNum) {
+        return Book.removeFormatting(book.pages.get(pageNum).asString().replaceAll("\n", " "));
+    }
+}
@@ -0,0 +1,119 @@
+package kamkeel.plugeditor.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Writes books to disk in the GHB format, or the PBK format for files named
+ * so, on a background I/O thread, one
+ * save at a time and in the order they were asked for. Each file is
+ * replaced atomically, see {@link AtomicFileWriter}. Saves still queued
+ * when the game exits are finished before it does, for a few seconds at
+ * most.
+ */
+public final class BookSaver {
+    private static final BookSaver INSTANCE = new BookSaver();
+
+    private static final long EXIT_WAIT_SECONDS = 10L;
+
+    private static final String PAGE_MARKER = "/////////// Page %d: ///////////";
+
+    private ExecutorService executor;
+
+    private BookSaver() {
+    }
+
+    public static BookSaver getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Writes the book to the given file in the background. The result
+     * completes with the file once it is written, or exceptionally with the
+     * IOException that stopped it.
+     */
+    public CompletableFuture<File> save(final BookSnapshot book, final File file, final String savedAt) {
+        return CompletableFuture.supplyAsync(new Supplier<File>() {
+            @Override
+            public File get() {
+                try {
+                    write(book, file, savedAt);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return file;
+            }
+        }, executor());
+    }
+
+    private static void write(BookSnapshot book, File file, String savedAt) throws IOException {
+        AtomicFileWriter atomic = AtomicFileWriter.open(file);
+        try {
+            if (file.getName().endsWith(PBKFile.EXTENSION)) {
+                PBKFile.write(book, atomic.getStream(), true);
+            } else {
+                Writer out = new OutputStreamWriter(atomic.getStream(), Charset.defaultCharset());
+                writeGHB(book, savedAt, out);
+                out.flush();
+            }
+            atomic.commit();
+        } finally {
+            atomic.close();
+        }
+    }
+
+    /**
+     * Writes the book as GHB: a header with title and author, then each
+     * page's lines with newlines as ## and pages separated by >>>>.
+     */
+    public static void writeGHB(BookSnapshot book, String savedAt, Writer out) throws IOException {
+        String newLine = System.getProperty("line.separator");
+        out.write("//Book saved in GHB format at " + savedAt + newLine);
+        if (!book.getTitle().isEmpty())
+            out.write("title:" + book.getTitle() + newLine);
+        if (!book.getAuthor().isEmpty())
+            out.write("author:" + book.getAuthor() + newLine);
+        out.write("//=======================================\n" + newLine);
+        for (int i = 0; i < book.getPageCount(); i++) {
+            out.write(String.format(PAGE_MARKER, i + 1));
+            out.write(newLine);
+            for (String line : book.getLines(i)) {
+                out.write(line.replace("\n", "##"));
+                out.write(newLine);
+            }
+            if (i < book.getPageCount() - 1)
+                out.write(">>>>\n" + newLine);
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (this.executor == null) {
+            this.executor = StorageThreads.newExecutor("PlugEditor book saver");
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    finishSaves();
+                }
+            }, "PlugEditor book saver shutdown"));
+        }
+        return this.executor;
+    }
+
+    private synchronized void finishSaves() {
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(EXIT_WAIT_SECONDS, TimeUnit.SECONDS))
+                System.out.println("[BookEditor] Gave up waiting for books still being saved");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package kamkeel.plugeditor.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import kamkeel.plugeditor.book.Book;
+import kamkeel.plugeditor.book.Line;
+import kamkeel.plugeditor.book.Page;
+import kamkeel.plugeditor.util.BookTextFormatter;
+
+/**
+ * An immutable copy of a book's title, author and the text of its lines, so
+ * it can be written or indexed on another thread while the book is edited.
+ * Taking one copies references to the line strings, not the text. A page
+ * the book still holds as text is copied as a single line.
+ */
+public final class BookSnapshot {
+    private final String title;
+
+    private final String author;
+
+    private final List<String[]> pages;
+
+    private final boolean[] laidOut;
+
+    private BookSnapshot(String title, String author, List<String[]> pages, boolean[] laidOut) {
+        this.title = title;
+        this.author = author;
+        this.pages = pages;
+        this.laidOut = laidOut;
+    }
+
+    public static BookSnapshot of(Book book) {
+        List<String[]> pages = new ArrayList<String[]>(book.totalPages());
+        boolean[] laidOut = new boolean[book.totalPages()];
+        for (Page page : book.pages) {
+            String[] lines = new String[page.lines.size()];
+            for (int i = 0; i < lines.length; i++)
+                lines[i] = page.lines.get(i).text;
+            laidOut[pages.size()] = page.isLaidOut();
+            pages.add(lines);
+        }
+        return new BookSnapshot(book.title, book.author, Collections.unmodifiableList(pages), laidOut);
+    }
+
+    /**
+     * Snapshot of a book laid out into the given lines, as {@link #of(Book)}
+     * would have taken it. Pages that were not laid out hold one line.
+     */
+    static BookSnapshot of(String title, String author, List<String[]> pages, boolean[] laidOut) {
+        return new BookSnapshot(title, author, Collections.unmodifiableList(new ArrayList<String[]>(pages)), laidOut.clone());
+    }
+
+    /**
+     * A new book with exactly the lines of this snapshot. The lines are not
+     * wrapped again, so offsets into the book's text match the book the
+     * snapshot was taken of.
+     */
+    public Book toBook() {
+        Book book = new Book();
+        book.title = this.title;
+        book.author = this.author;
+        for (int pageNum = 0; pageNum < this.pages.size(); pageNum++) {
+            String[] lines = this.pages.get(pageNum);
+            if (!this.laidOut[pageNum]) {
+                book.pages.add(new Page(lines[0]));
+                book.getText().insert(book.getText().length(), lines[0]);
+                continue;
+            }
+            Page page = new Page();
+            page.lines.clear();
+            // Formatting carries from line to line, but not across pages
+            int formatting = BookTextFormatter.NO_FORMATTING;
+            for (String text : lines) {
+                Line line = new Line();
+                line.setFormatting(formatting);
+                line.text = text;
+                page.lines.add(line);
+                formatting = line.getActiveFormatting();
+            }
+            if (page.lines.isEmpty())
+                page.lines.add(new Line());
+            page.markDirty();
+            book.pages.add(page);
+            book.getText().insert(book.getText().length(), page.asString());
+        }
+        if (book.pages.isEmpty())
+            book.pages.add(new Page());
+        return book;
+    }
+
+    public String getTitle() {
+        return this.title;
+    }
+
+    public String getAuthor() {
+        return this.author;
+    }
+
+    public int getPageCount() {
+        return this.pages.size();
+    }
+
+    /**
+     * Whether the book had laid the page out, rather than holding it as
+     * the text it was read with.
+     */
+    public boolean isLaidOut(int pageNum) {
+        return this.laidOut[pageNum];
+    }
+
+    /**
+     * Text of each line of the page, ending in a newline where the line was
+     * ended by one.
+     */
+    public List<String> getLines(int pageNum) {
+        return Collections.unmodifiableList(Arrays.asList(this.pages.get(pageNum)));
+    }
+
+    public String getPageText(int pageNum) {
+        StringBuilder text = new StringBuilder();
+        for (String line : this.pages.get(pageNum))
+            text.append(line);
+        return text.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package kamkeel.plugeditor.storage;
+
+import java.io.File;
+
+/**
+ * One file or directory as the scanner found it. The attributes are read
+ * once during the scan, so asking for them again never touches the disk.
+ */
+public final class DirectoryEntry {
+    private final File file;
+
+    private final String name;
+
+    private final boolean directory;
+
+    private final long size;
+
+    private final long lastModified;
+
+    public DirectoryEntry(File file, boolean directory, long size, long lastModified) {
+        this.file = file;
+        this.name = file.getName();
+        this.directory = directory;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public boolean isDirectory() {
+        return this.directory;
+    }
+
+    public boolean isFile() {
+        return !this.directory;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public long getLastModified() {
+        return this.lastModified;
+    }
+}
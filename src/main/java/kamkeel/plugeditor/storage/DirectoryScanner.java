@@ -0,0 +1,212 @@
+package kamkeel.plugeditor.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Lists directories for the file browser on a background thread. Each
+ * directory is read once with its entries' attributes and kept as an
+ * immutable {@link DirectorySnapshot}. Listed directories are watched for
+ * changes and rescanned when something in them is created, deleted or
+ * modified. Where watching is not supported, a listing is rescanned once it
+ * is older than {@link #UNWATCHED_REFRESH_MILLIS}. The render thread only
+ * ever looks up the latest snapshot.
+ */
+public final class DirectoryScanner {
+    private static final DirectoryScanner INSTANCE = new DirectoryScanner();
+
+    // Directories kept listed and watched, least recently asked for first
+    private static final int MAX_DIRECTORIES = 16;
+
+    public static final long UNWATCHED_REFRESH_MILLIS = 5000L;
+
+    private final Map<File, DirectorySnapshot> snapshots = new LinkedHashMap<File, DirectorySnapshot>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, DirectorySnapshot> eldest) {
+            if (size() <= MAX_DIRECTORIES)
+                return false;
+            unwatch(eldest.getKey());
+            return true;
+        }
+    };
+
+    private final Set<File> pending = new HashSet<File>();
+
+    private final Map<File, WatchKey> watchKeys = new HashMap<File, WatchKey>();
+
+    private final Map<WatchKey, File> watchedDirectories = new HashMap<WatchKey, File>();
+
+    private ExecutorService executor;
+
+    private WatchService watchService;
+
+    private boolean watchUnavailable;
+
+    private DirectoryScanner() {
+    }
+
+    public static DirectoryScanner getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the latest listing of the directory without blocking. The
+     * first call for a directory starts a scan and returns an empty listing
+     * that reports {@link DirectorySnapshot#isLoading()}.
+     */
+    public synchronized DirectorySnapshot getSnapshot(File directory) {
+        DirectorySnapshot snapshot = this.snapshots.get(directory);
+        if (snapshot == null) {
+            snapshot = DirectorySnapshot.loading(directory);
+            this.snapshots.put(directory, snapshot);
+            schedule(directory);
+        } else if (!snapshot.isLoading() && !this.watchKeys.containsKey(directory)
+                && System.currentTimeMillis() - snapshot.getScanTime() > UNWATCHED_REFRESH_MILLIS) {
+            schedule(directory);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Rescans a directory that is already listed, for callers that just
+     * changed it and should not wait for the watcher.
+     */
+    public synchronized void refresh(File directory) {
+        if (this.snapshots.containsKey(directory))
+            schedule(directory);
+    }
+
+    private void schedule(final File directory) {
+        if (!this.pending.add(directory))
+            return;
+        if (this.executor == null)
+            this.executor = StorageThreads.newExecutor("PlugEditor directory scanner");
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                scan(directory);
+            }
+        });
+    }
+
+    private void scan(File directory) {
+        synchronized (this) {
+            // Changes from here on need another scan
+            this.pending.remove(directory);
+        }
+        List<DirectoryEntry> directories = new ArrayList<DirectoryEntry>();
+        List<DirectoryEntry> files = new ArrayList<DirectoryEntry>();
+        try {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath());
+            try {
+                for (Path path : stream) {
+                    DirectoryEntry entry = readEntry(path);
+                    if (entry.isDirectory()) {
+                        directories.add(entry);
+                    } else {
+                        files.add(entry);
+                    }
+                }
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            // Unreadable directories list as empty, like File.listFiles
+            directories.clear();
+            files.clear();
+        } catch (DirectoryIteratorException e) {
+            directories.clear();
+            files.clear();
+        }
+        directories.addAll(files);
+        DirectorySnapshot snapshot = new DirectorySnapshot(directory, directories, false, System.currentTimeMillis());
+        synchronized (this) {
+            if (this.snapshots.containsKey(directory)) {
+                this.snapshots.put(directory, snapshot);
+                watch(directory);
+            }
+        }
+    }
+
+    private static DirectoryEntry readEntry(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new DirectoryEntry(path.toFile(), attributes.isDirectory(), attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            // Broken links and the like, which File.isDirectory also calls files
+            return new DirectoryEntry(path.toFile(), false, 0L, 0L);
+        }
+    }
+
+    private void watch(File directory) {
+        if (this.watchUnavailable || this.watchKeys.containsKey(directory))
+            return;
+        try {
+            if (this.watchService == null) {
+                this.watchService = directory.toPath().getFileSystem().newWatchService();
+                StorageThreads.newThread("PlugEditor directory watcher", new Runnable() {
+                    @Override
+                    public void run() {
+                        watchLoop();
+                    }
+                }).start();
+            }
+            WatchKey key = directory.toPath().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            this.watchKeys.put(directory, key);
+            this.watchedDirectories.put(key, directory);
+        } catch (IOException e) {
+            // Left unwatched and refreshed by age instead
+        } catch (UnsupportedOperationException e) {
+            this.watchUnavailable = true;
+            System.out.println("[BookEditor] Directory watching unavailable, refreshing listings by age: " + e.getMessage());
+        }
+    }
+
+    private void unwatch(File directory) {
+        WatchKey key = this.watchKeys.remove(directory);
+        if (key != null) {
+            this.watchedDirectories.remove(key);
+            key.cancel();
+        }
+    }
+
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = this.watchService.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            // The whole directory is rescanned, whatever the events were
+            key.pollEvents();
+            synchronized (this) {
+                File directory = this.watchedDirectories.get(key);
+                if (directory != null) {
+                    schedule(directory);
+                    if (!key.reset()) {
+                        this.watchKeys.remove(directory);
+                        this.watchedDirectories.remove(key);
+                    }
+                }
+            }
+        }
+    }
+}
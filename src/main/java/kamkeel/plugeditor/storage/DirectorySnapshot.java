@@ -0,0 +1,54 @@
+package kamkeel.plugeditor.storage;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable listing of one directory, directories first and then files. A
+ * rescan produces a new snapshot, so holders can tell a changed listing by
+ * identity.
+ */
+public final class DirectorySnapshot {
+    private final File directory;
+
+    private final List<DirectoryEntry> entries;
+
+    private final boolean loading;
+
+    private final long scanTime;
+
+    DirectorySnapshot(File directory, List<DirectoryEntry> entries, boolean loading, long scanTime) {
+        this.directory = directory;
+        this.entries = Collections.unmodifiableList(entries);
+        this.loading = loading;
+        this.scanTime = scanTime;
+    }
+
+    static DirectorySnapshot loading(File directory) {
+        return new DirectorySnapshot(directory, Collections.<DirectoryEntry>emptyList(), true, 0L);
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    public List<DirectoryEntry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Whether the first scan of the directory has not finished yet, in which
+     * case the listing is empty.
+     */
+    public boolean isLoading() {
+        return this.loading;
+    }
+
+    /**
+     * When the scan that produced this listing finished, in milliseconds.
+     */
+    public long getScanTime() {
+        return this.scanTime;
+    }
+}
@@ -0,0 +1,528 @@
+package kamkeel.plugeditor.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import kamkeel.plugeditor.book.Book;
+
+/**
+ * Append-only journal of the edits made to the book open in the editor, so
+ * they survive a crash of the game. The file starts with a checkpoint of the
+ * book, every line of every page, followed by the edits made since, each as
+ * the call to {@link Book} that makes it again. Pages laid out since the
+ * checkpoint are recorded too, as laying one out moves the offsets after it.
+ * Replaying them onto the checkpoint rebuilds the book as it was.
+ * <p>
+ * Edits are encoded on the client thread as they happen and handed to the
+ * journal's I/O thread once per tick, as one record with a checksum, so a
+ * record cut short by the crash is ignored. Once the edits since the last
+ * checkpoint grow past {@link #COMPACT_AFTER_BYTES}, the file is replaced by
+ * a new checkpoint, which keeps it about the size of the book. The journal is
+ * deleted when the editor is closed normally.
+ */
+public final class EditJournal implements Book.EditListener {
+    private static final int MAGIC = 0x50424A4C;
+
+    private static final int FORMAT_VERSION = 2;
+
+    static final int COMPACT_AFTER_BYTES = 256 * 1024;
+
+    // Larger records are not written by this journal, so are damage
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte OP_CHECKPOINT = 1;
+
+    private static final byte OP_INSERT_TEXT = 2;
+
+    private static final byte OP_REMOVE_TEXT = 3;
+
+    private static final byte OP_INSERT_PAGES = 4;
+
+    private static final byte OP_CUT_PAGES = 5;
+
+    private static final byte OP_REMOVE_PAGE = 6;
+
+    private static final byte OP_ADD_PAGE = 7;
+
+    private static final byte OP_TITLE = 8;
+
+    private static final byte OP_AUTHOR = 9;
+
+    private static final byte OP_LAY_OUT_PAGE = 10;
+
+    private static final Map<File, EditJournal> OPEN = new HashMap<File, EditJournal>();
+
+    private final File file;
+
+    private final ExecutorService executor = StorageThreads.newExecutor("PlugEditor edit journal");
+
+    // Client thread state
+
+    private Book book;
+
+    private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream pending = new DataOutputStream(this.pendingBytes);
+
+    private boolean needsCheckpoint;
+
+    // The pending bytes hold an edit; pages laid out alone can wait for one
+    private boolean editPending;
+
+    // The whole book changed since the last flush
+    private boolean replaced;
+
+    private int bytesSinceCheckpoint;
+
+    private String title;
+
+    private String author;
+
+    // I/O thread state, the journal file open for appending
+
+    private FileChannel channel;
+
+    private EditJournal(File file) {
+        this.file = file;
+    }
+
+    public static synchronized EditJournal open(File file) {
+        File key = file.getAbsoluteFile();
+        EditJournal journal = OPEN.get(key);
+        if (journal == null) {
+            journal = new EditJournal(key);
+            OPEN.put(key, journal);
+        }
+        return journal;
+    }
+
+    /**
+     * Reads back the book a crashed game left in the journal, with all its
+     * edits replayed, and deletes the journal. Completes with null when there
+     * was nothing to recover.
+     */
+    public CompletableFuture<BookSnapshot> recover() {
+        return CompletableFuture.supplyAsync(new Supplier<BookSnapshot>() {
+            @Override
+            public BookSnapshot get() {
+                if (!EditJournal.this.file.isFile())
+                    return null;
+                closeChannel();
+                BookSnapshot recovered = null;
+                try {
+                    recovered = read(EditJournal.this.file);
+                } catch (IOException e) {
+                    System.out.println("[BookEditor] Cannot read edit journal " + EditJournal.this.file + ": " + e.getMessage());
+                }
+                EditJournal.this.file.delete();
+                return recovered;
+            }
+        }, this.executor);
+    }
+
+    /**
+     * Starts journaling the edits of the given book. The first edit writes a
+     * checkpoint of the book as it is then.
+     */
+    public void start(Book book) {
+        if (this.book == book)
+            return;
+        if (this.book != null)
+            this.book.setEditListener(null);
+        this.book = book;
+        this.book.setEditListener(this);
+        this.title = book.title;
+        this.author = book.author;
+        this.pendingBytes.reset();
+        this.needsCheckpoint = true;
+        this.editPending = false;
+        this.replaced = false;
+    }
+
+    /**
+     * Stops journaling and deletes the journal, once the book is safely
+     * handed off.
+     */
+    public void finish() {
+        if (this.book == null)
+            return;
+        this.book.setEditListener(null);
+        this.book = null;
+        this.pendingBytes.reset();
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeChannel();
+                EditJournal.this.file.delete();
+            }
+        });
+    }
+
+    /**
+     * Hands the edits made since the last call to the I/O thread. Called
+     * once per tick on the client thread.
+     */
+    public void flush() {
+        if (this.book == null)
+            return;
+        try {
+            if (!this.book.title.equals(this.title)) {
+                this.title = this.book.title;
+                this.editPending = true;
+                this.pending.writeByte(OP_TITLE);
+                writeString(this.pending, this.title);
+            }
+            if (!this.book.author.equals(this.author)) {
+                this.author = this.book.author;
+                this.editPending = true;
+                this.pending.writeByte(OP_AUTHOR);
+                writeString(this.pending, this.author);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (!this.editPending && !this.replaced)
+            return;
+        this.editPending = false;
+        if (this.needsCheckpoint || this.replaced || this.bytesSinceCheckpoint >= COMPACT_AFTER_BYTES) {
+            // The checkpoint already holds the pending edits
+            final BookSnapshot snapshot = BookSnapshot.of(this.book);
+            this.pendingBytes.reset();
+            this.needsCheckpoint = false;
+            this.replaced = false;
+            this.bytesSinceCheckpoint = 0;
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writeCheckpoint(snapshot);
+                }
+            });
+            return;
+        }
+        final byte[] record = this.pendingBytes.toByteArray();
+        this.pendingBytes.reset();
+        this.bytesSinceCheckpoint += record.length;
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(record);
+            }
+        });
+    }
+
+    /**
+     * Completes once everything handed to the I/O thread so far is written.
+     */
+    CompletableFuture<Void> written() {
+        return CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, this.executor);
+    }
+
+    @Override
+    public void textInserted(int offset, String text) {
+        this.editPending = true;
+        try {
+            this.pending.writeByte(OP_INSERT_TEXT);
+            this.pending.writeInt(offset);
+            writeString(this.pending, text);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void textRemoved(int start, int end) {
+        this.editPending = true;
+        try {
+            this.pending.writeByte(OP_REMOVE_TEXT);
+            this.pending.writeInt(start);
+            this.pending.writeInt(end);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void pagesInserted(int index, List<String> newPages) {
+        this.editPending = true;
+        try {
+            this.pending.writeByte(OP_INSERT_PAGES);
+            this.pending.writeInt(index);
+            this.pending.writeInt(newPages.size());
+            for (String page : newPages)
+                writeString(this.pending, page);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void pagesCut(int firstPage, int lastPage) {
+        this.editPending = true;
+        try {
+            this.pending.writeByte(OP_CUT_PAGES);
+            this.pending.writeInt(firstPage);
+            this.pending.writeInt(lastPage);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void pageRemoved(int pageNum) {
+        this.editPending = true;
+        try {
+            this.pending.writeByte(OP_REMOVE_PAGE);
+            this.pending.writeInt(pageNum);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void pageAdded() {
+        this.editPending = true;
+        this.pendingBytes.write(OP_ADD_PAGE);
+    }
+
+    @Override
+    public void pageLaidOut(int pageNum) {
+        // The checkpoint still to be written holds the page laid out
+        if (this.needsCheckpoint || this.replaced)
+            return;
+        try {
+            this.pending.writeByte(OP_LAY_OUT_PAGE);
+            this.pending.writeInt(pageNum);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void bookReplaced() {
+        this.pendingBytes.reset();
+        this.replaced = true;
+    }
+
+    private void writeCheckpoint(BookSnapshot snapshot) {
+        closeChannel();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(OP_CHECKPOINT);
+            writeString(out, snapshot.getTitle());
+            writeString(out, snapshot.getAuthor());
+            out.writeInt(snapshot.getPageCount());
+            for (int i = 0; i < snapshot.getPageCount(); i++) {
+                List<String> lines = snapshot.getLines(i);
+                // A page not laid out yet is its text, marked by a negative count
+                out.writeInt(snapshot.isLaidOut(i) ? lines.size() : -1);
+                for (String line : lines)
+                    writeString(out, line);
+            }
+            AtomicFileWriter atomic = AtomicFileWriter.open(this.file);
+            try {
+                DataOutputStream header = new DataOutputStream(atomic.getStream());
+                header.writeInt(MAGIC);
+                header.writeInt(FORMAT_VERSION);
+                writeRecord(header, bytes.toByteArray());
+                header.flush();
+                atomic.commit();
+            } finally {
+                atomic.close();
+            }
+            this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.out.println("[BookEditor] Cannot write edit journal " + this.file + ": " + e.getMessage());
+        }
+    }
+
+    private void append(byte[] record) {
+        // Without its checkpoint the edits could not be replayed
+        if (this.channel == null)
+            return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.length + 8);
+        try {
+            writeRecord(new DataOutputStream(bytes), record);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining())
+                this.channel.write(buffer);
+            if (AtomicFileWriter.isSyncWrites())
+                this.channel.force(false);
+        } catch (IOException e) {
+            System.out.println("[BookEditor] Cannot write edit journal " + this.file + ": " + e.getMessage());
+            closeChannel();
+        }
+    }
+
+    private void closeChannel() {
+        if (this.channel == null)
+            return;
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // Nothing is lost, every record was written through
+        }
+        this.channel = null;
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        out.writeInt(record.length);
+        out.writeInt((int) crc.getValue());
+        out.write(record);
+    }
+
+    /**
+     * Reads the checkpoint and replays the edits after it. Reading stops at
+     * the first record that is cut short or damaged, or at an edit that can
+     * no longer be made.
+     */
+    static BookSnapshot read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not an edit journal");
+            int version = in.readInt();
+            if (version < 1 || version > FORMAT_VERSION)
+                throw new IOException("Unknown edit journal version " + version);
+            byte[] record = readRecord(in);
+            if (record == null)
+                return null;
+            Book book = readCheckpoint(new DataInputStream(new ByteArrayInputStream(record)));
+            int replayed = 0;
+            for (record = readRecord(in); record != null; record = readRecord(in)) {
+                try {
+                    replay(book, new DataInputStream(new ByteArrayInputStream(record)));
+                } catch (RuntimeException e) {
+                    System.out.println("[BookEditor] Stopped replaying edit journal at record " + replayed + ": " + e);
+                    break;
+                }
+                replayed++;
+            }
+            return BookSnapshot.of(book);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length <= 0 || length > MAX_RECORD_LENGTH)
+                return null;
+            byte[] record = new byte[length];
+            in.readFully(record);
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            return (int) crc.getValue() == checksum ? record : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static Book readCheckpoint(DataInputStream in) throws IOException {
+        if (in.readByte() != OP_CHECKPOINT)
+            throw new IOException("Edit journal does not start with a checkpoint");
+        String title = readString(in);
+        String author = readString(in);
+        int pageCount = in.readInt();
+        List<String[]> pages = new ArrayList<String[]>(pageCount);
+        boolean[] laidOut = new boolean[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            int lineCount = in.readInt();
+            laidOut[i] = lineCount >= 0;
+            String[] lines = new String[laidOut[i] ? lineCount : 1];
+            for (int j = 0; j < lines.length; j++)
+                lines[j] = readString(in);
+            pages.add(lines);
+        }
+        return BookSnapshot.of(title, author, pages, laidOut).toBook();
+    }
+
+    private static void replay(Book book, DataInputStream in) throws IOException {
+        while (in.available() > 0) {
+            byte op = in.readByte();
+            switch (op) {
+                case OP_INSERT_TEXT:
+                    int offset = in.readInt();
+                    book.addText(offset, readString(in), true);
+                    break;
+                case OP_REMOVE_TEXT:
+                    int start = in.readInt();
+                    book.removeText(start, in.readInt());
+                    break;
+                case OP_INSERT_PAGES:
+                    int index = in.readInt();
+                    List<String> newPages = new ArrayList<String>();
+                    for (int count = in.readInt(); count > 0; count--)
+                        newPages.add(readString(in));
+                    book.insertPages(index, newPages);
+                    break;
+                case OP_CUT_PAGES:
+                    int firstPage = in.readInt();
+                    book.cutPages(firstPage, in.readInt());
+                    break;
+                case OP_REMOVE_PAGE:
+                    book.removePage(in.readInt());
+                    break;
+                case OP_ADD_PAGE:
+                    book.addPage();
+                    break;
+                case OP_TITLE:
+                    book.title = readString(in);
+                    break;
+                case OP_AUTHOR:
+                    book.author = readString(in);
+                    break;
+                case OP_LAY_OUT_PAGE:
+                    book.getPage(in.readInt());
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown edit " + op);
+            }
+        }
+    }
+
+    // Pasted text can be longer than writeUTF allows
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available())
+            throw new EOFException();
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,258 @@
+package kamkeel.plugeditor.storage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import kamkeel.plugeditor.book.Book;
+
+/**
+ * Reads GHB books in a single pass over the file. Each line goes through
+ * three stages, each a small state machine over characters:
+ * <ul>
+ * <li>comments: line comments run to the end of the line, also inside
+ * block comments, and block comments may span lines;</li>
+ * <li>whitespace: line breaks are dropped, and spaces and tabs right before a
+ * {@code ##} or {@code >>>>} are dropped with them;</li>
+ * <li>markers: {@code ##} becomes a newline and {@code >>>>} ends the page,
+ * which is added to the book as soon as it is complete.</li>
+ * </ul>
+ * {@code title:} and {@code author:} lines set the book's title and author.
+ * Only the current line and page are ever held, so loading takes time linear
+ * in the size of the file.
+ */
+public final class GHBReader {
+    private static final String NEWLINE_MARKER = "##";
+
+    private static final String PAGE_BREAK = ">>>>";
+
+    private static final int MAX_HEADER_LENGTH = 16;
+
+    // Null when only cleaning text, which then collects in page
+    private final Book book;
+
+    private final StringBuilder page = new StringBuilder();
+
+    private boolean inBlockComment;
+
+    // Whitespace that is dropped if a marker follows it
+    private final StringBuilder whitespace = new StringBuilder();
+
+    // Characters after the whitespace that may still turn out to be a marker
+    private final StringBuilder probe = new StringBuilder();
+
+    private boolean heldHash;
+
+    private int heldBreak;
+
+    private boolean sawPageBreak;
+
+    // Empty pages are only added once a page with text follows them
+    private int pendingEmptyPages;
+
+    private GHBReader(Book book) {
+        this.book = book;
+    }
+
+    /**
+     * Reads a GHB book, or returns null when the reader has no lines at all.
+     */
+    public static Book read(Reader reader) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        String line = lines.readLine();
+        if (line == null)
+            return null;
+        Book book = new Book();
+        book.clear();
+        GHBReader ghb = new GHBReader(book);
+        for (; line != null; line = lines.readLine())
+            ghb.readLine(line);
+        ghb.finish();
+        return book;
+    }
+
+    /**
+     * Strips comments, line breaks and whitespace before markers from the
+     * text, leaving the markers themselves in place.
+     */
+    public static String clean(String text) {
+        GHBReader ghb = new GHBReader(null);
+        ghb.lex(text);
+        ghb.finish();
+        return ghb.page.toString();
+    }
+
+    private void readLine(String line) {
+        if (this.book.title.isEmpty() && line.regionMatches(true, 0, "title:", 0, 6)) {
+            if (line.length() >= 7) {
+                this.book.title = Book.truncateStringChars(clean(line.substring(6)).trim(), "..", MAX_HEADER_LENGTH, false);
+                headerComment(line);
+            }
+            return;
+        }
+        if (this.book.author.isEmpty() && line.regionMatches(true, 0, "author:", 0, 7)) {
+            if (line.length() >= 8) {
+                this.book.author = Book.truncateStringChars(clean(line.substring(7)).trim(), "..", MAX_HEADER_LENGTH, false);
+                headerComment(line);
+            }
+            return;
+        }
+        lex(line);
+        lex("\n");
+    }
+
+    // A block comment opened on a header line carries on into the book
+    private void headerComment(String line) {
+        int start = line.indexOf("/*");
+        if (start != -1) {
+            lex(line.substring(start));
+            lex("\n");
+        }
+    }
+
+    private void lex(String text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            char next = i + 1 < length ? text.charAt(i + 1) : 0;
+            // A section sign saved as UTF-8 and read back as Latin-1
+            if (c == '\u00c2' && next == '\u00a7')
+                continue;
+            if (c == '/' && next == '/') {
+                int end = text.indexOf('\n', i);
+                if (end == -1)
+                    return;
+                i = end - 1;
+            } else if (this.inBlockComment) {
+                // In "*//" the slash starts a line comment instead
+                if (c == '*' && next == '/' && (i + 2 >= length || text.charAt(i + 2) != '/')) {
+                    this.inBlockComment = false;
+                    i++;
+                }
+            } else if (c == '/' && next == '*') {
+                this.inBlockComment = true;
+                i++;
+            } else {
+                accept(c);
+            }
+        }
+    }
+
+    private void accept(char c) {
+        if (this.probe.length() == 0) {
+            if (isWhitespace(c)) {
+                this.whitespace.append(c);
+                return;
+            }
+            if (this.whitespace.length() == 0) {
+                mark(c);
+                return;
+            }
+        }
+        this.probe.append(c);
+        if (matches(NEWLINE_MARKER) || matches(PAGE_BREAK)) {
+            this.whitespace.setLength(0);
+            flushProbe();
+        } else if (!startsMarker(NEWLINE_MARKER) && !startsMarker(PAGE_BREAK)) {
+            flushWhitespace();
+            flushProbe();
+        }
+    }
+
+    private boolean matches(String marker) {
+        return this.probe.length() == marker.length() && startsMarker(marker);
+    }
+
+    private boolean startsMarker(String marker) {
+        if (this.probe.length() > marker.length())
+            return false;
+        for (int i = 0; i < this.probe.length(); i++) {
+            if (this.probe.charAt(i) != marker.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    // The probe is lexed again, since whitespace after its start may begin another run
+    private void flushProbe() {
+        String probed = this.probe.toString();
+        this.probe.setLength(0);
+        for (int i = 0; i < probed.length(); i++)
+            accept(probed.charAt(i));
+    }
+
+    private void flushWhitespace() {
+        for (int i = 0; i < this.whitespace.length(); i++) {
+            char c = this.whitespace.charAt(i);
+            if (c != '\r' && c != '\n')
+                mark(c);
+        }
+        this.whitespace.setLength(0);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    private void mark(char c) {
+        if (this.book == null) {
+            this.page.append(c);
+            return;
+        }
+        if (c != '#' && this.heldHash) {
+            this.heldHash = false;
+            this.page.append('#');
+        }
+        if (c != '>') {
+            for (; this.heldBreak > 0; this.heldBreak--)
+                this.page.append('>');
+        }
+        if (c == '#') {
+            this.heldHash = !this.heldHash;
+            if (!this.heldHash)
+                this.page.append('\n');
+        } else if (c == '>') {
+            if (++this.heldBreak == PAGE_BREAK.length()) {
+                this.heldBreak = 0;
+                endPage();
+            }
+        } else {
+            this.page.append(c);
+        }
+    }
+
+    private void endPage() {
+        this.sawPageBreak = true;
+        if (this.page.length() == 0) {
+            this.pendingEmptyPages++;
+        } else {
+            addPage();
+        }
+    }
+
+    private void addPage() {
+        for (; this.pendingEmptyPages > 0; this.pendingEmptyPages--)
+            this.book.appendPage("");
+        this.book.appendPage(this.page.toString());
+        this.page.setLength(0);
+    }
+
+    private void finish() {
+        if (this.probe.length() > 0) {
+            flushWhitespace();
+            flushProbe();
+        }
+        flushWhitespace();
+        if (this.book == null)
+            return;
+        if (this.heldHash) {
+            this.heldHash = false;
+            this.page.append('#');
+        }
+        for (; this.heldBreak > 0; this.heldBreak--)
+            this.page.append('>');
+        // Empty pages at the end are dropped, unless the book has no other
+        if (this.page.length() > 0 || !this.sawPageBreak)
+            addPage();
+    }
+}
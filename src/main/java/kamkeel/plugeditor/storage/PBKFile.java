@@ -0,0 +1,229 @@
+package kamkeel.plugeditor.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import kamkeel.plugeditor.book.Book;
+
+/**
+ * Binary book format for large archives of books. The file is laid out as:
+ * <ul>
+ * <li>a header: magic, format version, title and author as length-prefixed
+ * UTF-8, and the page count;</li>
+ * <li>a page table with the file offset of each page;</li>
+ * <li>the pages: a flag byte, the length of the UTF-8 text, the length of
+ * the stored bytes and the bytes themselves, Deflate compressed if the flag
+ * says so.</li>
+ * </ul>
+ * Files are read through a memory map, so opening one reads only the
+ * header, and any single page can be read without touching the others.
+ */
+public final class PBKFile {
+    public static final String EXTENSION = ".pbk";
+
+    private static final int MAGIC = 0x50424B31;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte PAGE_DEFLATED = 1;
+
+    // Smaller pages barely compress, so are stored as they are
+    private static final int MIN_COMPRESSED_BYTES = 64;
+
+    // Far more than any page holds, to catch damaged lengths
+    private static final int MAX_PAGE_BYTES = 1 << 20;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+
+    private final String title;
+
+    private final String author;
+
+    private final int pageCount;
+
+    private final int pageTable;
+
+    private PBKFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("Not a PBK book");
+        int version = buffer.getShort();
+        if (version != FORMAT_VERSION)
+            throw new IOException("Unknown PBK version " + version);
+        this.title = readString(buffer);
+        this.author = readString(buffer);
+        this.pageCount = buffer.getInt();
+        this.pageTable = buffer.position();
+        if (this.pageCount < 0 || this.pageCount > (buffer.limit() - this.pageTable) / 4)
+            throw new IOException("Damaged PBK book");
+    }
+
+    /**
+     * Opens a PBK file. Only its header is read until pages are asked for.
+     */
+    public static PBKFile open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            // The map stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new PBKFile(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Damaged PBK book");
+        } finally {
+            channel.close();
+        }
+    }
+
+    public String getTitle() {
+        return this.title;
+    }
+
+    public String getAuthor() {
+        return this.author;
+    }
+
+    public int getPageCount() {
+        return this.pageCount;
+    }
+
+    /**
+     * Text of a single page, decoding only that page.
+     */
+    public String getPage(int pageNum) throws IOException {
+        if (pageNum < 0 || pageNum >= this.pageCount)
+            throw new IndexOutOfBoundsException("Page " + pageNum + " of " + this.pageCount);
+        // Duplicates keep reads of different pages from sharing a position
+        ByteBuffer page = this.buffer.duplicate();
+        try {
+            page.position(page.getInt(this.pageTable + 4 * pageNum));
+            byte flags = page.get();
+            int textLength = page.getInt();
+            int storedLength = page.getInt();
+            if (textLength < 0 || textLength > MAX_PAGE_BYTES || storedLength < 0 || storedLength > page.remaining())
+                throw new IOException("Damaged PBK book");
+            byte[] stored = new byte[storedLength];
+            page.get(stored);
+            if ((flags & PAGE_DEFLATED) == 0)
+                return new String(stored, UTF_8);
+            return new String(inflate(stored, textLength), UTF_8);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Damaged PBK book");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Damaged PBK book");
+        }
+    }
+
+    /**
+     * Reads every page into a book, which lays each out once it is visited,
+     * the way it does GHB books.
+     */
+    public Book toBook() throws IOException {
+        Book book = new Book();
+        book.clear();
+        book.title = this.title;
+        book.author = this.author;
+        for (int i = 0; i < this.pageCount; i++)
+            book.appendPage(getPage(i));
+        if (book.pages.isEmpty())
+            book.appendPage("");
+        return book;
+    }
+
+    /**
+     * Writes the book in the PBK format, compressing the pages that get
+     * smaller by it when asked to.
+     */
+    public static void write(BookSnapshot book, OutputStream out, boolean compress) throws IOException {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(MAGIC);
+        header.writeShort(FORMAT_VERSION);
+        writeString(header, book.getTitle());
+        writeString(header, book.getAuthor());
+        header.writeInt(book.getPageCount());
+
+        ByteArrayOutputStream pageBytes = new ByteArrayOutputStream();
+        DataOutputStream pages = new DataOutputStream(pageBytes);
+        int pagesStart = headerBytes.size() + 4 * book.getPageCount();
+        Deflater deflater = compress ? new Deflater() : null;
+        try {
+            for (int i = 0; i < book.getPageCount(); i++) {
+                header.writeInt(pagesStart + pages.size());
+                byte[] text = book.getPageText(i).getBytes(UTF_8);
+                byte[] stored = text;
+                if (deflater != null && text.length >= MIN_COMPRESSED_BYTES) {
+                    byte[] deflated = deflate(deflater, text);
+                    if (deflated.length < text.length)
+                        stored = deflated;
+                }
+                pages.writeByte(stored == text ? 0 : PAGE_DEFLATED);
+                pages.writeInt(text.length);
+                pages.writeInt(stored.length);
+                pages.write(stored);
+            }
+        } finally {
+            if (deflater != null)
+                deflater.end();
+        }
+        headerBytes.writeTo(out);
+        pageBytes.writeTo(out);
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] text) {
+        deflater.reset();
+        deflater.setInput(text);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(text.length);
+        byte[] chunk = new byte[1024];
+        while (!deflater.finished())
+            deflated.write(chunk, 0, deflater.deflate(chunk));
+        return deflated.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] stored, int textLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            byte[] text = new byte[textLength];
+            int length = 0;
+            while (length < textLength) {
+                int inflated = inflater.inflate(text, length, textLength - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Damaged PBK book");
+                length += inflated;
+            }
+            return text;
+        } catch (DataFormatException e) {
+            throw new IOException("Damaged PBK book");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(UTF_8);
+        if (bytes.length > 0xFFFF)
+            throw new IOException("Text too long for a PBK header");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,138 @@
+package kamkeel.plugeditor.storage;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import kamkeel.plugeditor.FileHandler;
+import kamkeel.plugeditor.book.Book;
+
+/**
+ * Parses books for the file browser's preview on a background thread and
+ * remembers the most recently previewed ones. Previews are keyed by path,
+ * modification time and size as the directory scanner read them, so a
+ * rewritten file is parsed again. The cache is bounded by the total text
+ * of the books it holds.
+ */
+public final class PreviewLoader {
+    private static final PreviewLoader INSTANCE = new PreviewLoader();
+
+    public static final int MAX_CACHED_CHARS = 1 << 21;
+
+    private final LinkedHashMap<PreviewKey, BookPreview> previews = new LinkedHashMap<PreviewKey, BookPreview>(16, 0.75F, true);
+
+    private final Map<PreviewKey, CompletableFuture<BookPreview>> loading = new HashMap<PreviewKey, CompletableFuture<BookPreview>>();
+
+    private int cachedChars;
+
+    private ExecutorService executor;
+
+    private PreviewLoader() {
+    }
+
+    public static PreviewLoader getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the preview of the given file, completed at once when it is
+     * cached. Cancelling the result before it was picked up skips the parse.
+     */
+    public synchronized CompletableFuture<BookPreview> request(final DirectoryEntry entry, final FileHandler fileHandler) {
+        final PreviewKey key = new PreviewKey(entry);
+        BookPreview preview = this.previews.get(key);
+        if (preview != null)
+            return CompletableFuture.completedFuture(preview);
+        CompletableFuture<BookPreview> future = this.loading.get(key);
+        if (future != null && !future.isCancelled())
+            return future;
+        future = CompletableFuture.supplyAsync(new Supplier<BookPreview>() {
+            @Override
+            public BookPreview get() {
+                return load(fileHandler, entry.getFile());
+            }
+        }, executor());
+        this.loading.put(key, future);
+        final CompletableFuture<BookPreview> loaded = future;
+        future.whenComplete(new BiConsumer<BookPreview, Throwable>() {
+            @Override
+            public void accept(BookPreview preview, Throwable failure) {
+                store(key, loaded, preview);
+            }
+        });
+        return future;
+    }
+
+    public synchronized void invalidate() {
+        this.previews.clear();
+        this.cachedChars = 0;
+    }
+
+    private static BookPreview load(FileHandler fileHandler, File file) {
+        Book book = fileHandler.loadBook(file);
+        if (book == null)
+            return new BookPreview(null, "");
+        return new BookPreview(book, BookPreview.firstPageText(book));
+    }
+
+    private synchronized void store(PreviewKey key, CompletableFuture<BookPreview> future, BookPreview preview) {
+        if (this.loading.get(key) == future)
+            this.loading.remove(key);
+        if (preview == null)
+            return;
+        BookPreview replaced = this.previews.put(key, preview);
+        if (replaced != null)
+            this.cachedChars -= replaced.getWeight();
+        this.cachedChars += preview.getWeight();
+        // Always keep the newest preview, however large
+        Iterator<BookPreview> eldest = this.previews.values().iterator();
+        while (this.cachedChars > MAX_CACHED_CHARS && this.previews.size() > 1) {
+            this.cachedChars -= eldest.next().getWeight();
+            eldest.remove();
+        }
+    }
+
+    private ExecutorService executor() {
+        if (this.executor == null) {
+            this.executor = StorageThreads.newExecutor("PlugEditor preview loader");
+        }
+        return this.executor;
+    }
+
+    private static final class PreviewKey {
+        private final File file;
+
+        private final long lastModified;
+
+        private final long size;
+
+        PreviewKey(DirectoryEntry entry) {
+            this.file = entry.getFile();
+            this.lastModified = entry.getLastModified();
+            this.size = entry.getSize();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof PreviewKey))
+                return false;
+            PreviewKey other = (PreviewKey) o;
+            return this.lastModified == other.lastModified && this.size == other.size && this.file.equals(other.file);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = this.file.hashCode();
+            h = 31 * h + (int) (this.lastModified ^ (this.lastModified >>> 32));
+            return 31 * h + (int) (this.size ^ (this.size >>> 32));
+        }
+    }
+}
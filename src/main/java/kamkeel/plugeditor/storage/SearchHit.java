@@ -0,0 +1,28 @@
+package kamkeel.plugeditor.storage;
+
+import java.io.File;
+
+/**
+ * A page of a saved book that holds every word of a search.
+ */
+public final class SearchHit {
+    private final File file;
+
+    private final int page;
+
+    SearchHit(File file, int page) {
+        this.file = file;
+        this.page = page;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Index of the matching page, counted from 0.
+     */
+    public int getPage() {
+        return this.page;
+    }
+}
@@ -0,0 +1,344 @@
+package kamkeel.plugeditor.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Inverted index from the words of saved books to the pages they are on.
+ * Words are the runs of letters and digits in the text without formatting
+ * codes, lowercased. Each word keeps a sorted list of postings, a book id in
+ * the high half and a page in the low half, so a search intersects sorted
+ * arrays rather than reading any book. A changed book is removed and added
+ * again under a new id, which keeps the postings sorted. Not thread-safe:
+ * the book index changes a {@link #copy()} of the index searches read and
+ * then publishes it, and never changes a published index again.
+ */
+final class SearchIndex {
+    // Longer words are indexed by their start, which prefix search still finds
+    static final int MAX_WORD_LENGTH = 32;
+
+    // Files by book id, null once removed
+    private final List<File> books = new ArrayList<File>();
+
+    // Words of each book by book id, to remove its postings again
+    private final List<String[]> bookWords = new ArrayList<String[]>();
+
+    private final Map<File, Integer> bookIds = new HashMap<File, Integer>();
+
+    private final TreeMap<String, Postings> words = new TreeMap<String, Postings>();
+
+    // Postings made by this index, which it may change; the rest are shared
+    private final int generation;
+
+    SearchIndex() {
+        this.generation = 0;
+    }
+
+    private SearchIndex(SearchIndex original) {
+        this.generation = original.generation + 1;
+        this.books.addAll(original.books);
+        this.bookWords.addAll(original.bookWords);
+        this.bookIds.putAll(original.bookIds);
+        this.words.putAll(original.words);
+    }
+
+    /**
+     * An index with the same contents that can be changed without changing
+     * this one. The postings are shared until the copy changes them.
+     */
+    SearchIndex copy() {
+        return new SearchIndex(this);
+    }
+
+    /**
+     * Indexes the pages of a book, replacing what was indexed for it before.
+     * Pages are the book's text without formatting codes.
+     */
+    void add(File file, List<String> pages) {
+        remove(file);
+        int id = this.books.size();
+        Set<String> allWords = new HashSet<String>();
+        Set<String> pageWords = new HashSet<String>();
+        for (int page = 0; page < pages.size(); page++) {
+            pageWords.clear();
+            split(pages.get(page), pageWords);
+            for (String word : pageWords) {
+                postings(word).add(posting(id, page));
+            }
+            allWords.addAll(pageWords);
+        }
+        this.books.add(file);
+        this.bookWords.add(allWords.toArray(new String[allWords.size()]));
+        this.bookIds.put(file, id);
+    }
+
+    void remove(File file) {
+        Integer id = this.bookIds.remove(file);
+        if (id == null)
+            return;
+        for (String word : this.bookWords.get(id)) {
+            Postings postings = postings(word);
+            postings.removeBook(id);
+            if (postings.size == 0)
+                this.words.remove(word);
+        }
+        this.books.set(id, null);
+        this.bookWords.set(id, null);
+    }
+
+    /**
+     * Postings of the word that this index may change, copied first when
+     * they are shared with the index this one was copied from.
+     */
+    private Postings postings(String word) {
+        Postings postings = this.words.get(word);
+        if (postings == null || postings.generation != this.generation) {
+            postings = postings == null ? new Postings(this.generation) : postings.copy(this.generation);
+            this.words.put(word, postings);
+        }
+        return postings;
+    }
+
+    /**
+     * Pages holding every word of the query, in index order. The last word
+     * may be the start of a longer word, so results show up while it is
+     * still being typed.
+     */
+    List<SearchHit> search(String query, int limit) {
+        List<String> queryWords = new ArrayList<String>();
+        split(query, queryWords);
+        if (queryWords.isEmpty())
+            return Collections.emptyList();
+        long[] matches = null;
+        for (int i = 0; i < queryWords.size() && (matches == null || matches.length > 0); i++) {
+            String word = queryWords.get(i);
+            long[] pages = i == queryWords.size() - 1 ? prefixPostings(word) : exactPostings(word);
+            matches = matches == null ? pages : intersect(matches, pages);
+        }
+        List<SearchHit> hits = new ArrayList<SearchHit>(Math.min(matches.length, limit));
+        for (int i = 0; i < matches.length && hits.size() < limit; i++)
+            hits.add(new SearchHit(this.books.get(bookId(matches[i])), page(matches[i])));
+        return hits;
+    }
+
+    private long[] exactPostings(String word) {
+        Postings postings = this.words.get(word);
+        return postings == null ? new long[0] : Arrays.copyOf(postings.values, postings.size);
+    }
+
+    private long[] prefixPostings(String prefix) {
+        Collection<Postings> matching = this.words.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+        if (matching.size() == 1)
+            return exactPostings(this.words.ceilingKey(prefix));
+        int total = 0;
+        for (Postings postings : matching)
+            total += postings.size;
+        long[] union = new long[total];
+        int size = 0;
+        for (Postings postings : matching) {
+            System.arraycopy(postings.values, 0, union, size, postings.size);
+            size += postings.size;
+        }
+        Arrays.sort(union);
+        int unique = 0;
+        for (int i = 0; i < union.length; i++) {
+            if (unique == 0 || union[unique - 1] != union[i])
+                union[unique++] = union[i];
+        }
+        return Arrays.copyOf(union, unique);
+    }
+
+    private static long[] intersect(long[] a, long[] b) {
+        long[] both = new long[Math.min(a.length, b.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                both[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(both, size);
+    }
+
+    /**
+     * Adds the words of the text to the collection, lowercased.
+     */
+    static void split(String text, Collection<String> out) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (word.length() < MAX_WORD_LENGTH)
+                    word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                out.add(word.toString());
+                word.setLength(0);
+            }
+        }
+    }
+
+    private static long posting(int bookId, int page) {
+        return (long) bookId << 32 | page;
+    }
+
+    private static int bookId(long posting) {
+        return (int) (posting >>> 32);
+    }
+
+    private static int page(long posting) {
+        return (int) posting;
+    }
+
+    /**
+     * Writes the books and postings with book ids renumbered from 0 and
+     * postings delta-encoded, which keeps most of them to two bytes.
+     */
+    void write(DataOutputStream out) throws IOException {
+        int[] newIds = new int[this.books.size()];
+        int liveBooks = 0;
+        for (int id = 0; id < this.books.size(); id++) {
+            if (this.books.get(id) != null)
+                newIds[id] = liveBooks++;
+        }
+        out.writeInt(liveBooks);
+        for (File file : this.books) {
+            if (file != null)
+                out.writeUTF(file.getPath());
+        }
+        out.writeInt(this.words.size());
+        for (Map.Entry<String, Postings> entry : this.words.entrySet()) {
+            Postings postings = entry.getValue();
+            out.writeUTF(entry.getKey());
+            writeVarInt(out, postings.size);
+            int lastBook = 0;
+            int lastPage = 0;
+            for (int i = 0; i < postings.size; i++) {
+                int book = newIds[bookId(postings.values[i])];
+                int page = page(postings.values[i]);
+                writeVarInt(out, book - lastBook);
+                writeVarInt(out, book == lastBook ? page - lastPage : page);
+                lastBook = book;
+                lastPage = page;
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of this index with what write stored.
+     */
+    void read(DataInputStream in) throws IOException {
+        clear();
+        int bookCount = in.readInt();
+        List<List<String>> wordsOfBooks = new ArrayList<List<String>>(bookCount);
+        for (int id = 0; id < bookCount; id++) {
+            File file = new File(in.readUTF());
+            this.books.add(file);
+            this.bookIds.put(file, id);
+            wordsOfBooks.add(new ArrayList<String>());
+        }
+        int wordCount = in.readInt();
+        for (int i = 0; i < wordCount; i++) {
+            String word = in.readUTF();
+            int size = readVarInt(in);
+            Postings postings = new Postings(this.generation);
+            int book = 0;
+            int page = 0;
+            for (int j = 0; j < size; j++) {
+                int bookDelta = readVarInt(in);
+                int pageValue = readVarInt(in);
+                page = bookDelta == 0 ? page + pageValue : pageValue;
+                book += bookDelta;
+                if (book >= bookCount)
+                    throw new IOException("Posting of unknown book " + book);
+                if (j == 0 || bookDelta != 0)
+                    wordsOfBooks.get(book).add(word);
+                postings.add(posting(book, page));
+            }
+            this.words.put(word, postings);
+        }
+        for (List<String> bookWords : wordsOfBooks)
+            this.bookWords.add(bookWords.toArray(new String[bookWords.size()]));
+    }
+
+    private void clear() {
+        this.books.clear();
+        this.bookWords.clear();
+        this.bookIds.clear();
+        this.words.clear();
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed search index");
+    }
+
+    /**
+     * Growable sorted array of postings.
+     */
+    private static final class Postings {
+        final int generation;
+
+        long[] values = new long[4];
+
+        int size;
+
+        Postings(int generation) {
+            this.generation = generation;
+        }
+
+        Postings copy(int generation) {
+            Postings copy = new Postings(generation);
+            copy.values = Arrays.copyOf(this.values, Math.max(this.size, 4));
+            copy.size = this.size;
+            return copy;
+        }
+
+        void add(long posting) {
+            if (this.size == this.values.length)
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            this.values[this.size++] = posting;
+        }
+
+        void removeBook(int bookId) {
+            int kept = 0;
+            for (int i = 0; i < this.size; i++) {
+                if (SearchIndex.bookId(this.values[i]) != bookId)
+                    this.values[kept++] = this.values[i];
+            }
+            this.size = kept;
+        }
+    }
+}
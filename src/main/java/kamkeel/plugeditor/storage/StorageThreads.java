@@ -0,0 +1,29 @@
+package kamkeel.plugeditor.storage;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Background threads of the storage classes. They are daemons so a pending
+ * scan or parse never keeps the game from exiting.
+ */
+final class StorageThreads {
+    private StorageThreads() {
+    }
+
+    static ExecutorService newExecutor(final String name) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return StorageThreads.newThread(name, runnable);
+            }
+        });
+    }
+
+    static Thread newThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
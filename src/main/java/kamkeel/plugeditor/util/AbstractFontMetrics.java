@@ -0,0 +1,131 @@
+package kamkeel.plugeditor.util;
+
+/**
+ * Base for {@link FontMetrics} implementations that only know the width of
+ * single glyphs. Strings are measured by the same rules as the vanilla
+ * FontRenderer: a section sign and the code after it take no space, bold adds
+ * a pixel to every visible glyph, and only a reset code ends bold when
+ * measuring (wrapping also ends it on a color code).
+ */
+public abstract class AbstractFontMetrics implements FontMetrics {
+    /**
+     * Width of a single glyph. Only called between {@link #prepare()} and the
+     * end of the measurement it was called for.
+     */
+    protected abstract int charWidth(char c);
+
+    /**
+     * Called once before each measurement, so implementations can refresh
+     * their glyph table outside the per-character loop.
+     */
+    protected void prepare() {
+    }
+
+    @Override
+    public int getCharWidth(char c) {
+        prepare();
+        return charWidth(c);
+    }
+
+    @Override
+    public int getStringWidth(String text) {
+        if (text == null)
+            return 0;
+        prepare();
+        int width = 0;
+        boolean bold = false;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            int glyphWidth = charWidth(text.charAt(i));
+            if (glyphWidth < 0 && i < length - 1) {
+                i++;
+                bold = nextBold(bold, text.charAt(i));
+                continue;
+            }
+            width += glyphWidth;
+            if (bold && glyphWidth > 0)
+                width++;
+        }
+        return width;
+    }
+
+    @Override
+    public int measurePrefixes(CharSequence text, int[] out) {
+        prepare();
+        int width = 0;
+        boolean bold = false;
+        int length = text.length();
+        out[0] = 0;
+        for (int i = 0; i < length; i++) {
+            int glyphWidth = charWidth(text.charAt(i));
+            if (glyphWidth < 0 && i < length - 1) {
+                // A prefix ending on the section sign still counts its width
+                out[i + 1] = width + glyphWidth;
+                i++;
+                bold = nextBold(bold, text.charAt(i));
+                out[i + 1] = width;
+                continue;
+            }
+            width += glyphWidth;
+            if (bold && glyphWidth > 0)
+                width++;
+            out[i + 1] = width;
+        }
+        return width;
+    }
+
+    @Override
+    public int sizeStringToWidth(String text, int maxWidth) {
+        prepare();
+        int length = text.length();
+        int width = 0;
+        int pos = 0;
+        int lastSpace = -1;
+        for (boolean bold = false; pos < length; pos++) {
+            char c = text.charAt(pos);
+            switch (c) {
+                case '\n':
+                    pos--;
+                    break;
+                case '\u00a7':
+                    if (pos < length - 1) {
+                        pos++;
+                        char code = text.charAt(pos);
+                        if (code == 'l' || code == 'L') {
+                            bold = true;
+                        } else if (code == 'r' || code == 'R' || isFormatColor(code)) {
+                            bold = false;
+                        }
+                    }
+                    break;
+                case ' ':
+                    lastSpace = pos;
+                    // Spaces are measured like any other glyph
+                default:
+                    width += charWidth(c);
+                    if (bold)
+                        width++;
+            }
+            if (c == '\n') {
+                pos++;
+                lastSpace = pos;
+                break;
+            }
+            if (width > maxWidth)
+                break;
+        }
+        return pos != length && lastSpace != -1 && lastSpace < pos ? lastSpace : pos;
+    }
+
+    private static boolean nextBold(boolean bold, char code) {
+        if (code == 'l' || code == 'L')
+            return true;
+        if (code == 'r' || code == 'R')
+            return false;
+        return bold;
+    }
+
+    private static boolean isFormatColor(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
@@ -0,0 +1,143 @@
+package kamkeel.plugeditor.util;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Pure Java {@link FontMetrics} that reads glyph widths from the default
+ * font files the same way the vanilla FontRenderer does: widths of the 256
+ * glyphs in ascii.png come from their rightmost opaque column, everything
+ * else from glyph_sizes.bin. Lets the layout run headless, e.g. in tests,
+ * benchmarks or batch tools.
+ */
+public final class BitmapFontMetrics extends AbstractFontMetrics {
+    public static final String ASCII_TEXTURE = "/assets/minecraft/textures/font/ascii.png";
+
+    public static final String GLYPH_SIZES = "/assets/minecraft/font/glyph_sizes.bin";
+
+    // Characters of the ascii.png glyph grid, in FontRenderer order
+    private static final String ASCII_CHARS = "\u00c0\u00c1\u00c2\u00c8\u00ca\u00cb\u00cd\u00d3\u00d4\u00d5\u00da\u00df\u00e3\u00f5\u011f\u0130"
+        + "\u0131\u0152\u0153\u015e\u015f\u0174\u0175\u017e\u0207\u0000\u0000\u0000\u0000\u0000\u0000\u0000"
+        + " !\"#$%&'()*+,-./0123456789:;<=>?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\]^_`abcdefghijklmnopqrstuvwxyz{|}~\u0000"
+        + "\u00c7\u00fc\u00e9\u00e2\u00e4\u00e0\u00e5\u00e7\u00ea\u00eb\u00e8\u00ef\u00ee\u00ec\u00c4\u00c5"
+        + "\u00c9\u00e6\u00c6\u00f4\u00f6\u00f2\u00fb\u00f9\u00ff\u00d6\u00dc\u00f8\u00a3\u00d8\u00d7\u0192"
+        + "\u00e1\u00ed\u00f3\u00fa\u00f1\u00d1\u00aa\u00ba\u00bf\u00ae\u00ac\u00bd\u00bc\u00a1\u00ab\u00bb"
+        + "\u2591\u2592\u2593\u2502\u2524\u2561\u2562\u2556\u2555\u2563\u2551\u2557\u255d\u255c\u255b\u2510"
+        + "\u2514\u2534\u252c\u251c\u2500\u253c\u255e\u255f\u255a\u2554\u2569\u2566\u2560\u2550\u256c\u2567"
+        + "\u2568\u2564\u2565\u2559\u2558\u2552\u2553\u256b\u256a\u2518\u250c\u2588\u2584\u258c\u2590\u2580"
+        + "\u03b1\u03b2\u0393\u03c0\u03a3\u03c3\u03bc\u03c4\u03a6\u0398\u03a9\u03b4\u221e\u2205\u2208\u2229"
+        + "\u2261\u00b1\u2265\u2264\u2320\u2321\u00f7\u2248\u00b0\u2219\u00b7\u221a\u207f\u00b2\u25a0\u0000";
+
+    private final byte[] widths = new byte[Character.MAX_VALUE + 1];
+
+    /**
+     * @param asciiTexture the ascii.png glyph sheet
+     * @param glyphSizes   contents of glyph_sizes.bin, or null if unavailable
+     * @param unicodeFlag  whether to measure everything with the unicode font
+     */
+    public BitmapFontMetrics(BufferedImage asciiTexture, byte[] glyphSizes, boolean unicodeFlag) {
+        int[] asciiWidths = readAsciiWidths(asciiTexture);
+        for (int c = 0; c <= Character.MAX_VALUE; c++)
+            this.widths[c] = (byte) glyphWidth((char) c, asciiWidths, glyphSizes, unicodeFlag);
+    }
+
+    /**
+     * Loads the default font files from the classpath, where the Minecraft
+     * client jar provides them.
+     */
+    public static BitmapFontMetrics loadDefault() throws IOException {
+        InputStream ascii = BitmapFontMetrics.class.getResourceAsStream(ASCII_TEXTURE);
+        if (ascii == null)
+            throw new IOException("Font texture " + ASCII_TEXTURE + " not found on the classpath");
+        InputStream glyphSizes = BitmapFontMetrics.class.getResourceAsStream(GLYPH_SIZES);
+        return load(ascii, glyphSizes);
+    }
+
+    /**
+     * Reads the font files from the given streams and closes them.
+     *
+     * @param glyphSizes glyph_sizes.bin, or null if unavailable
+     */
+    public static BitmapFontMetrics load(InputStream asciiTexture, InputStream glyphSizes) throws IOException {
+        try {
+            BufferedImage image = ImageIO.read(asciiTexture);
+            if (image == null)
+                throw new IOException("Font texture is not a readable image");
+            return new BitmapFontMetrics(image, glyphSizes == null ? null : readFully(glyphSizes), false);
+        } finally {
+            asciiTexture.close();
+            if (glyphSizes != null)
+                glyphSizes.close();
+        }
+    }
+
+    @Override
+    protected int charWidth(char c) {
+        return this.widths[c];
+    }
+
+    // Same as FontRenderer.readFontTexture
+    private static int[] readAsciiWidths(BufferedImage image) {
+        int imageWidth = image.getWidth();
+        int imageHeight = image.getHeight();
+        int[] pixels = new int[imageWidth * imageHeight];
+        image.getRGB(0, 0, imageWidth, imageHeight, pixels, 0, imageWidth);
+        int cellHeight = imageHeight / 16;
+        int cellWidth = imageWidth / 16;
+        float scale = 8.0F / cellWidth;
+        int[] asciiWidths = new int[256];
+        for (int i = 0; i < 256; i++) {
+            int column = i % 16;
+            int row = i / 16;
+            int x;
+            for (x = cellWidth - 1; x >= 0; x--) {
+                boolean blank = true;
+                for (int y = 0; y < cellHeight && blank; y++) {
+                    int pixel = pixels[column * cellWidth + x + (row * cellWidth + y) * imageWidth];
+                    if ((pixel >> 24 & 255) != 0)
+                        blank = false;
+                }
+                if (!blank)
+                    break;
+            }
+            x++;
+            asciiWidths[i] = (int) (0.5D + x * scale) + 1;
+        }
+        return asciiWidths;
+    }
+
+    // Same as FontRenderer.getCharWidth
+    private static int glyphWidth(char c, int[] asciiWidths, byte[] glyphSizes, boolean unicodeFlag) {
+        if (c == '\u00a7')
+            return -1;
+        if (c == ' ')
+            return 4;
+        int index = ASCII_CHARS.indexOf(c);
+        if (c > 0 && index != -1 && !unicodeFlag)
+            return asciiWidths[index];
+        if (glyphSizes != null && c < glyphSizes.length && glyphSizes[c] != 0) {
+            int start = glyphSizes[c] >>> 4;
+            int end = glyphSizes[c] & 15;
+            if (end > 7) {
+                end = 15;
+                start = 0;
+            }
+            end++;
+            return (end - start) / 2 + 1;
+        }
+        return 0;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Character.MAX_VALUE + 1);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+}
@@ -2,15 +2,18 @@ package kamkeel.plugeditor.util;
 
 import java.util.List;
 
-import net.minecraft.client.gui.FontRenderer;
-
 /**
  * Abstraction over the formatting logic used by the book editor. Implementations
  * can either use the vanilla-style routines (BookUtils) or delegate to HexText
  * when it is available.
  */
 public interface BookTextFormatter {
-    List<String> listFormattedStringToWidth(FontRenderer renderer, String text, String wrappedFormatting, int maxWidth);
+    /**
+     * Formatting state with no active color or style.
+     */
+    int NO_FORMATTING = 0;
+
+    List<String> listFormattedStringToWidth(FontMetrics metrics, String text, String wrappedFormatting, int maxWidth);
 
     int detectColorCodeLength(CharSequence text, int index);
 
@@ -20,5 +23,19 @@ public interface BookTextFormatter {
 
     String extractActiveFormatting(String text);
 
+    /**
+     * Returns the formatting active after the given range of text when the
+     * formatting before it is the given state. States are small ints that
+     * only mean something to the formatter that produced them, so layout can
+     * carry and compare them without building code strings.
+     */
+    int advanceFormatting(int state, CharSequence text, int start, int end);
+
+    /**
+     * Returns the formatting codes that restore the given state, the same
+     * string extractActiveFormatting would return for it.
+     */
+    String formattingCodes(int state);
+
     String stripColorCodes(CharSequence text);
 }
@@ -6,7 +6,6 @@ import java.util.Collections;
 import java.util.List;
 
 import kamkeel.plugeditor.book.Line;
-import net.minecraft.client.gui.FontRenderer;
 
 /**
  * Vanilla-compatible implementation of {@link BookTextFormatter}. This mirrors
@@ -15,18 +14,31 @@ import net.minecraft.client.gui.FontRenderer;
 public final class BookUtils implements BookTextFormatter {
     public static final BookUtils INSTANCE = new BookUtils();
 
+    // Initial number of characters measured when looking for a wrap point
+    private static final int MEASURE_WINDOW = 128;
+
+    // Formatting states hold the color digit plus one in the low bits (0 for
+    // no color) and one bit per k-o style above it.
+    private static final int COLOR_MASK = 0x1f;
+
+    private static final int STYLE_SHIFT = 5;
+
+    private static final int STYLE_COUNT = 5;
+
+    private static final String[] FORMATTING_CODES = new String[1 << (STYLE_SHIFT + STYLE_COUNT)];
+
     private BookUtils() {
     }
 
     @Override
-    public List<String> listFormattedStringToWidth(FontRenderer renderer, String text, String wrappedFormatting, int maxWidth) {
-        if (renderer == null) {
+    public List<String> listFormattedStringToWidth(FontMetrics metrics, String text, String wrappedFormatting, int maxWidth) {
+        if (metrics == null) {
             return Collections.singletonList(text == null ? "" : text);
         }
 
         String prefix = wrappedFormatting == null ? "" : wrappedFormatting;
         String content = text == null ? "" : text;
-        String wrapped = wrapStringToWidth(renderer, content, maxWidth, prefix);
+        String wrapped = wrapStringToWidth(metrics, content, maxWidth, prefix);
         if (wrapped.isEmpty()) {
             return Collections.singletonList("");
         }
@@ -89,44 +101,43 @@ public final class BookUtils implements BookTextFormatter {
         if (s == null || s.isEmpty()) {
             return "";
         }
-        String color = "";
-        boolean k = false;
-        boolean l = false;
-        boolean m = false;
-        boolean n = false;
-        boolean o = false;
+        return formattingCodes(advanceFormatting(NO_FORMATTING, s, 0, s.length()));
+    }
 
-        for (int i = 0; i < s.length() - 1; i++) {
-            if (s.charAt(i) == '\u00a7') {
-                char c = Character.toLowerCase(s.charAt(i + 1));
+    @Override
+    public int advanceFormatting(int state, CharSequence text, int start, int end) {
+        for (int i = start; i < end - 1; i++) {
+            if (text.charAt(i) == '\u00a7') {
+                char c = Character.toLowerCase(text.charAt(i + 1));
                 if (c == 'r') {
-                    color = "";
-                    k = l = m = n = o = false;
+                    state = NO_FORMATTING;
                 } else if (isLegacyFormatColor(c)) {
-                    color = "\u00a7" + c;
-                    k = l = m = n = o = false;
-                } else if (c == 'k') {
-                    k = true;
-                } else if (c == 'l') {
-                    l = true;
-                } else if (c == 'm') {
-                    m = true;
-                } else if (c == 'n') {
-                    n = true;
-                } else if (c == 'o') {
-                    o = true;
+                    state = Character.digit(c, 16) + 1;
+                } else if (c >= 'k' && c <= 'o') {
+                    state |= 1 << (STYLE_SHIFT + c - 'k');
                 }
             }
         }
+        return state;
+    }
 
-        StringBuilder out = new StringBuilder();
-        if (!color.isEmpty()) out.append(color);
-        if (k) out.append("\u00a7k");
-        if (l) out.append("\u00a7l");
-        if (m) out.append("\u00a7m");
-        if (n) out.append("\u00a7n");
-        if (o) out.append("\u00a7o");
-        return out.toString();
+    @Override
+    public String formattingCodes(int state) {
+        if (state < 0 || state >= FORMATTING_CODES.length) {
+            return "";
+        }
+        String codes = FORMATTING_CODES[state];
+        if (codes == null) {
+            StringBuilder out = new StringBuilder();
+            int color = state & COLOR_MASK;
+            if (color != 0) out.append('\u00a7').append(Character.forDigit(color - 1, 16));
+            for (int style = 0; style < STYLE_COUNT; style++) {
+                if ((state & (1 << (STYLE_SHIFT + style))) != 0) out.append('\u00a7').append((char) ('k' + style));
+            }
+            codes = out.toString();
+            FORMATTING_CODES[state] = codes;
+        }
+        return codes;
     }
 
     @Override
@@ -146,37 +157,68 @@ public final class BookUtils implements BookTextFormatter {
         return builder.toString();
     }
 
-    private String wrapStringToWidth(FontRenderer renderer, String text, int maxWidth, String wrappedFormatting) {
+    // Joins the wrapped segments with Line.SPLIT_CHAR. Works through the text
+    // in one pass, so long pastes neither recurse nor copy the remainder.
+    private String wrapStringToWidth(FontMetrics metrics, String text, int maxWidth, String wrappedFormatting) {
         if (text == null) {
             return "";
         }
-        int maxCharsInWidth = sizeStringToWidth(renderer, wrappedFormatting + text, maxWidth) - wrappedFormatting.length();
-        if (text.length() <= maxCharsInWidth) {
-            return text;
-        }
-
-        if (maxCharsInWidth <= 0) {
-            maxCharsInWidth = 1;
-        }
-
-        String firstSegment = text.substring(0, maxCharsInWidth);
-        char splitChar = text.charAt(maxCharsInWidth);
-        boolean newlineOrSpace = (splitChar == ' ' || splitChar == '\n');
-        String remainder = text.substring(maxCharsInWidth + (newlineOrSpace ? 1 : 0));
-        if (newlineOrSpace) {
-            firstSegment = firstSegment + splitChar;
-        }
+        int length = text.length();
+        StringBuilder out = new StringBuilder(length + length / 32);
+        int state = advanceFormatting(NO_FORMATTING, wrappedFormatting, 0, wrappedFormatting.length());
+        // Later lines are measured with the canonical codes of their state
+        String formatting = wrappedFormatting;
+        int pos = 0;
+        while (true) {
+            int maxCharsInWidth = charsInWidth(metrics, text, pos, maxWidth, formatting);
+            if (length - pos <= maxCharsInWidth) {
+                out.append(text, pos, length);
+                break;
+            }
+            if (maxCharsInWidth <= 0) {
+                maxCharsInWidth = 1;
+                if (length - pos <= maxCharsInWidth) {
+                    out.append(text, pos, length);
+                    break;
+                }
+            }
 
-        String activeFormatting = extractActiveFormatting(wrappedFormatting + firstSegment);
-        String wrappedRemainder = remainder.isEmpty() ? "" : wrapStringToWidth(renderer, remainder, maxWidth, activeFormatting);
-        if (wrappedRemainder.isEmpty()) {
-            return firstSegment;
+            int segmentEnd = pos + maxCharsInWidth;
+            char splitChar = text.charAt(segmentEnd);
+            if (splitChar == ' ' || splitChar == '\n') {
+                segmentEnd++;
+            }
+            state = advanceFormatting(state, text, pos, segmentEnd);
+            formatting = formattingCodes(state);
+            out.append(text, pos, segmentEnd);
+            pos = segmentEnd;
+            if (pos >= length) {
+                break;
+            }
+            out.append(Line.SPLIT_CHAR);
         }
-        return firstSegment + Line.SPLIT_CHAR + wrappedRemainder;
+        return out.toString();
     }
 
-    private int sizeStringToWidth(FontRenderer renderer, String text, int maxWidth) {
-        return FontRendererPrivate.callSizeStringToWidth(renderer, text, maxWidth);
+    /**
+     * Same as measuring the formatting followed by the rest of the text from
+     * pos with sizeStringToWidth, but only hands it a window of the text. The
+     * measurement stops early once a line is full; the window only grows
+     * while it does not.
+     */
+    private int charsInWidth(FontMetrics metrics, String text, int pos, int maxWidth, String formatting) {
+        int remaining = text.length() - pos;
+        int window = Math.min(MEASURE_WINDOW, remaining);
+        StringBuilder chunk = new StringBuilder(formatting.length() + window);
+        while (true) {
+            chunk.setLength(0);
+            chunk.append(formatting).append(text, pos, pos + window);
+            int chars = metrics.sizeStringToWidth(chunk.toString(), maxWidth) - formatting.length();
+            if (chars < window || window == remaining) {
+                return chars;
+            }
+            window = Math.min(window * 2, remaining);
+        }
     }
 
     private boolean isLegacyFormatColor(char c) {
@@ -0,0 +1,188 @@
+package kamkeel.plugeditor.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link BookTextFormatter} that remembers the most recently wrapped lines of
+ * another formatter. Reflow, page turns and re-sends wrap the same text with
+ * the same formatting over and over, so those wraps are answered from a
+ * bounded LRU map instead. Everything else is passed straight through. The
+ * owner drops the cache whenever glyph widths may have changed.
+ */
+public final class CachingTextFormatter implements BookTextFormatter {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Map<WrapKey, List<String>> wraps;
+
+    private BookTextFormatter delegate;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * Counts the times the cache was dropped, so wraps that were running at
+     * the time are not put back into it.
+     */
+    private int generation;
+
+    public CachingTextFormatter(BookTextFormatter delegate) {
+        this(delegate, DEFAULT_CAPACITY);
+    }
+
+    public CachingTextFormatter(BookTextFormatter delegate, final int capacity) {
+        this.delegate = delegate;
+        this.wraps = new LinkedHashMap<WrapKey, List<String>>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<WrapKey, List<String>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public synchronized BookTextFormatter getDelegate() {
+        return this.delegate;
+    }
+
+    /**
+     * Switches the formatter being cached, dropping what the old one wrapped.
+     */
+    public synchronized void setDelegate(BookTextFormatter delegate) {
+        if (this.delegate != delegate) {
+            this.delegate = delegate;
+            invalidate();
+        }
+    }
+
+    public synchronized void invalidate() {
+        this.wraps.clear();
+        this.generation++;
+    }
+
+    public synchronized long getHitCount() {
+        return this.hits;
+    }
+
+    public synchronized long getMissCount() {
+        return this.misses;
+    }
+
+    public synchronized int size() {
+        return this.wraps.size();
+    }
+
+    /**
+     * Returns the wrapped lines, which must not be modified. Only the lookup
+     * and the insert hold the lock; the wrap itself runs outside it, so a
+     * long wrap on one thread never holds up cache hits on another. A wrap
+     * started before the cache was dropped is returned but not kept.
+     */
+    @Override
+    public List<String> listFormattedStringToWidth(FontMetrics metrics, String text, String wrappedFormatting, int maxWidth) {
+        WrapKey key = new WrapKey(metrics, wrappedFormatting, text, maxWidth);
+        BookTextFormatter wrapper;
+        int generation;
+        synchronized (this) {
+            List<String> lines = this.wraps.get(key);
+            if (lines != null) {
+                this.hits++;
+                return lines;
+            }
+            this.misses++;
+            wrapper = this.delegate;
+            generation = this.generation;
+        }
+        List<String> lines = Collections.unmodifiableList(wrapper.listFormattedStringToWidth(metrics, text, wrappedFormatting, maxWidth));
+        synchronized (this) {
+            if (generation != this.generation)
+                return lines;
+            // Another thread may have wrapped the same text meanwhile
+            List<String> cached = this.wraps.get(key);
+            if (cached != null)
+                return cached;
+            this.wraps.put(key, lines);
+        }
+        return lines;
+    }
+
+    @Override
+    public int detectColorCodeLength(CharSequence text, int index) {
+        return getDelegate().detectColorCodeLength(text, index);
+    }
+
+    @Override
+    public int findColorCodeStart(CharSequence text, int endExclusive) {
+        return getDelegate().findColorCodeStart(text, endExclusive);
+    }
+
+    @Override
+    public String sanitizeFormatting(String text) {
+        return getDelegate().sanitizeFormatting(text);
+    }
+
+    @Override
+    public String extractActiveFormatting(String text) {
+        return getDelegate().extractActiveFormatting(text);
+    }
+
+    @Override
+    public int advanceFormatting(int state, CharSequence text, int start, int end) {
+        return getDelegate().advanceFormatting(state, text, start, end);
+    }
+
+    @Override
+    public String formattingCodes(int state) {
+        return getDelegate().formattingCodes(state);
+    }
+
+    @Override
+    public String stripColorCodes(CharSequence text) {
+        return getDelegate().stripColorCodes(text);
+    }
+
+    private static final class WrapKey {
+        private final FontMetrics metrics;
+
+        private final String formatting;
+
+        private final String text;
+
+        private final int maxWidth;
+
+        private final int hash;
+
+        WrapKey(FontMetrics metrics, String formatting, String text, int maxWidth) {
+            this.metrics = metrics;
+            this.formatting = formatting;
+            this.text = text;
+            this.maxWidth = maxWidth;
+            int h = System.identityHashCode(metrics);
+            h = 31 * h + (formatting == null ? 0 : formatting.hashCode());
+            h = 31 * h + (text == null ? 0 : text.hashCode());
+            this.hash = 31 * h + maxWidth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof WrapKey))
+                return false;
+            WrapKey other = (WrapKey) o;
+            return this.hash == other.hash && this.metrics == other.metrics && this.maxWidth == other.maxWidth
+                && equal(this.formatting, other.formatting) && equal(this.text, other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
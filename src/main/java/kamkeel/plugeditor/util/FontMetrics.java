@@ -0,0 +1,29 @@
+package kamkeel.plugeditor.util;
+
+/**
+ * Measures book text in pixels. Layout code only measures through this
+ * interface, taking the active instance from
+ * {@link kamkeel.plugeditor.book.BookController}, so pagination can run
+ * without a Minecraft client. {@link VanillaFontMetrics} measures with the
+ * game's FontRenderer; {@link BitmapFontMetrics} reads the same glyph widths
+ * from the default font files.
+ */
+public interface FontMetrics {
+    int getCharWidth(char c);
+
+    int getStringWidth(String text);
+
+    /**
+     * Fills {@code out[i]} with the width of the first i characters of the
+     * text, the same value getStringWidth would return for that prefix, and
+     * returns the width of the whole text. The array must hold at least
+     * {@code text.length() + 1} entries.
+     */
+    int measurePrefixes(CharSequence text, int[] out);
+
+    /**
+     * Returns how many characters of the text fit in the given width, the
+     * way FontRenderer.sizeStringToWidth decides where to wrap.
+     */
+    int sizeStringToWidth(String text, int maxWidth);
+}
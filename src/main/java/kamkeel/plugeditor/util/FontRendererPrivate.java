@@ -2,7 +2,8 @@ package kamkeel.plugeditor.util;
 
 import net.minecraft.client.gui.FontRenderer;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
 
 public final class FontRendererPrivate {
@@ -10,6 +11,28 @@ public final class FontRendererPrivate {
 
     private FontRendererPrivate() {}
 
+    // Resolved on first use; a static final handle lets the JIT inline the call
+    private static final class Handles {
+        static final MethodHandle SIZE_TO_WIDTH;
+
+        static final NoSuchMethodError FAILURE;
+
+        static {
+            MethodHandle handle = null;
+            NoSuchMethodError failure = null;
+            try {
+                handle = MethodHandles.lookup().unreflect(resolve());
+            } catch (NoSuchMethodError e) {
+                failure = e;
+            } catch (IllegalAccessException e) {
+                failure = new NoSuchMethodError("FontRenderer.sizeStringToWidth not accessible (setAccessible failed?)");
+                failure.initCause(e);
+            }
+            SIZE_TO_WIDTH = handle;
+            FAILURE = failure;
+        }
+    }
+
     // Resolve and cache the private method (MCP first, SRG fallback)
     private static Method resolve() {
         Method m = SIZE_TO_WIDTH;
@@ -55,13 +78,13 @@ public final class FontRendererPrivate {
         if (fr == null) {
             throw new IllegalStateException("FontRenderer is null. Call after Minecraft client is initialized.");
         }
+        MethodHandle handle = Handles.SIZE_TO_WIDTH;
+        if (handle == null) {
+            throw Handles.FAILURE;
+        }
         try {
-            return (int) resolve().invoke(fr, text, width);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException("FontRenderer.sizeStringToWidth not accessible (setAccessible failed?)", e);
-        } catch (InvocationTargetException e) {
-            // Unwrap the target’s exception for easier debugging
-            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            return (int) handle.invokeExact(fr, text, width);
+        } catch (Throwable cause) {
             throw new RuntimeException("Invocation of sizeStringToWidth failed: " + cause, cause);
         }
     }
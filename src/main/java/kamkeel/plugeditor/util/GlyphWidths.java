@@ -0,0 +1,60 @@
+package kamkeel.plugeditor.util;
+
+import java.util.Arrays;
+
+import net.minecraft.client.gui.FontRenderer;
+import net.minecraft.client.resources.IResourceManager;
+import net.minecraft.client.resources.IResourceManagerReloadListener;
+
+/**
+ * Table of glyph widths for the game's font, so {@link VanillaFontMetrics}
+ * does not have to ask the FontRenderer for every character it measures.
+ * Each width is read from the renderer the first time its character is
+ * measured, and the table is dropped again when resources are reloaded or
+ * the renderer switches its unicode flag.
+ */
+public final class GlyphWidths implements IResourceManagerReloadListener {
+    public static final GlyphWidths INSTANCE = new GlyphWidths();
+
+    private static final byte UNKNOWN = Byte.MIN_VALUE;
+
+    private final byte[] widths = new byte[Character.MAX_VALUE + 1];
+
+    private FontRenderer renderer;
+
+    private boolean unicodeFlag;
+
+    private GlyphWidths() {
+        Arrays.fill(this.widths, UNKNOWN);
+    }
+
+    @Override
+    public void onResourceManagerReload(IResourceManager resourceManager) {
+        invalidate();
+    }
+
+    public synchronized void invalidate() {
+        this.renderer = null;
+    }
+
+    /**
+     * Drops the table if it was filled for another renderer or unicode flag.
+     * Call once before a run of {@link #getCharWidth} calls.
+     */
+    public synchronized void validate(FontRenderer fr) {
+        if (this.renderer != fr || this.unicodeFlag != fr.getUnicodeFlag()) {
+            Arrays.fill(this.widths, UNKNOWN);
+            this.renderer = fr;
+            this.unicodeFlag = fr.getUnicodeFlag();
+        }
+    }
+
+    public int getCharWidth(FontRenderer fr, char c) {
+        byte width = this.widths[c];
+        if (width == UNKNOWN) {
+            width = (byte) fr.getCharWidth(c);
+            this.widths[c] = width;
+        }
+        return width;
+    }
+}
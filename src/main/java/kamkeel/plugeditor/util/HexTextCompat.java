@@ -2,6 +2,8 @@ package kamkeel.plugeditor.util;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import kamkeel.hextext.client.render.FontRendererUtils;
 import kamkeel.hextext.common.util.ColorCodeUtils;
@@ -15,13 +17,38 @@ import net.minecraft.client.gui.FontRenderer;
 public final class HexTextCompat implements BookTextFormatter {
     public static final HexTextCompat INSTANCE = new HexTextCompat();
 
+    // HexText formatting nests colors and keeps raw effect codes, so it does
+    // not fit in a fixed set of bits. States are ids of the distinct
+    // formatting strings seen so far instead. Lines keep their ids, so none
+    // is ever dropped; once MAX_STATES are taken, new formatting is carried
+    // by its legacy codes, of which there are at most LEGACY_STATES.
+    private static final int MAX_STATES = 1 << 14;
+
+    // No color or one of 16, with any set of the 5 styles
+    private static final int LEGACY_STATES = 17 * 32;
+
+    // Longest HexText code, a closing </RRGGBB> tag
+    private static final int MAX_CODE_LENGTH = 9;
+
+    private final ConcurrentHashMap<String, Integer> formattingIds = new ConcurrentHashMap<String, Integer>();
+    private final AtomicReferenceArray<String> formattingStrings = new AtomicReferenceArray<String>(MAX_STATES + LEGACY_STATES);
+    private int stateCount;
+
     private HexTextCompat() {
+        this.formattingIds.put("", NO_FORMATTING);
+        this.formattingStrings.set(NO_FORMATTING, "");
+        this.stateCount = 1;
     }
 
     @Override
-    public List<String> listFormattedStringToWidth(FontRenderer renderer, String text, String wrappedFormatting, int maxWidth) {
+    public List<String> listFormattedStringToWidth(FontMetrics metrics, String text, String wrappedFormatting, int maxWidth) {
+        // HexText wraps with the game's renderer, other metrics use the legacy wrapping
+        if (!(metrics instanceof VanillaFontMetrics)) {
+            return BookUtils.INSTANCE.listFormattedStringToWidth(metrics, text, wrappedFormatting, maxWidth);
+        }
+        FontRenderer renderer = ((VanillaFontMetrics) metrics).getRenderer();
         if (renderer == null) {
-            return BookUtils.INSTANCE.listFormattedStringToWidth(renderer, text, wrappedFormatting, maxWidth);
+            return BookUtils.INSTANCE.listFormattedStringToWidth(null, text, wrappedFormatting, maxWidth);
         }
 
         try {
@@ -29,7 +56,7 @@ public final class HexTextCompat implements BookTextFormatter {
             String combined = prefix + (text == null ? "" : text);
             String wrapped = FontRendererUtils.wrapFormattedString(renderer, combined, maxWidth, true);
             if (wrapped == null) {
-                return BookUtils.INSTANCE.listFormattedStringToWidth(renderer, text, wrappedFormatting, maxWidth);
+                return BookUtils.INSTANCE.listFormattedStringToWidth(metrics, text, wrappedFormatting, maxWidth);
             }
 
             String[] split = wrapped.split("\n", -1);
@@ -42,12 +69,12 @@ public final class HexTextCompat implements BookTextFormatter {
                 lines.add(line);
             }
             if (lines.isEmpty()) {
-                return BookUtils.INSTANCE.listFormattedStringToWidth(renderer, text, wrappedFormatting, maxWidth);
+                return BookUtils.INSTANCE.listFormattedStringToWidth(metrics, text, wrappedFormatting, maxWidth);
             }
             return lines;
         } catch (Throwable throwable) {
             System.out.println("[BookEditor] HexText wrapFormattedString invocation failed: " + throwable.getMessage());
-            return BookUtils.INSTANCE.listFormattedStringToWidth(renderer, text, wrappedFormatting, maxWidth);
+            return BookUtils.INSTANCE.listFormattedStringToWidth(metrics, text, wrappedFormatting, maxWidth);
         }
     }
 
@@ -113,6 +140,80 @@ public final class HexTextCompat implements BookTextFormatter {
         }
     }
 
+    @Override
+    public int advanceFormatting(int state, CharSequence text, int start, int end) {
+        String stateCodes = formattingCodes(state);
+        // A trailing &x code of the state reads on into a following hex color
+        int last = stateCodes.length() - 2;
+        if (last >= 0 && start < end && stateCodes.charAt(last) == '&' && isHexDigit(stateCodes.charAt(last + 1))
+            && isHexDigit(text.charAt(start))) {
+            return formattingId(extractActiveFormatting(stateCodes + text.subSequence(start, end)));
+        }
+        // Text between codes leaves the formatting as it is, so only the codes
+        // in the range are scanned after the state's codes. Most lines have
+        // none and keep the state without building a string.
+        StringBuilder codes = null;
+        for (int i = start; i < end; i++) {
+            if (!mayStartCode(text.charAt(i))) {
+                continue;
+            }
+            // A code is only seen whole if it ends inside the range
+            CharSequence window = text.subSequence(i, Math.min(i + MAX_CODE_LENGTH, end));
+            int length = detectColorCodeLength(window, 0);
+            if (length > 0) {
+                if (codes == null) {
+                    codes = new StringBuilder(stateCodes);
+                }
+                codes.append(window, 0, length);
+                i += length - 1;
+            }
+        }
+        if (codes == null) {
+            return state;
+        }
+        return formattingId(extractActiveFormatting(codes.toString()));
+    }
+
+    private static boolean mayStartCode(char c) {
+        return c == '\u00a7' || c == '&' || c == '<';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    @Override
+    public String formattingCodes(int state) {
+        if (state < 0 || state >= this.formattingStrings.length()) {
+            return "";
+        }
+        String codes = this.formattingStrings.get(state);
+        return codes == null ? "" : codes;
+    }
+
+    private int formattingId(String codes) {
+        Integer id = this.formattingIds.get(codes);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = this.formattingIds.get(codes);
+            if (id != null) {
+                return id;
+            }
+            if (this.stateCount >= MAX_STATES) {
+                String legacy = BookUtils.INSTANCE.extractActiveFormatting(codes);
+                if (!legacy.equals(codes)) {
+                    return formattingId(legacy);
+                }
+            }
+            id = this.stateCount++;
+            this.formattingStrings.set(id, codes);
+            this.formattingIds.put(codes, id);
+            return id;
+        }
+    }
+
     @Override
     public String stripColorCodes(CharSequence text) {
         if (text == null) {
@@ -0,0 +1,121 @@
+package kamkeel.plugeditor.util;
+
+import kamkeel.plugeditor.book.BookController;
+import kamkeel.plugeditor.book.CodeSpans;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.FontRenderer;
+
+/**
+ * {@link FontMetrics} backed by the game's FontRenderer. Glyph widths come
+ * from the cached {@link GlyphWidths} table and wrap points from the real
+ * (possibly mixin-patched) sizeStringToWidth. With HexText loaded the renderer
+ * measures HexText's own codes, so string widths are asked from it directly.
+ * {@link #INSTANCE} follows the client's renderer; other instances measure
+ * with the renderer they were given.
+ */
+public final class VanillaFontMetrics extends AbstractFontMetrics {
+    public static final VanillaFontMetrics INSTANCE = new VanillaFontMetrics(null);
+
+    private final FontRenderer renderer;
+
+    public VanillaFontMetrics(FontRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    public FontRenderer getRenderer() {
+        if (this.renderer != null)
+            return this.renderer;
+        return Minecraft.getMinecraft().fontRenderer;
+    }
+
+    @Override
+    protected void prepare() {
+        GlyphWidths.INSTANCE.validate(getRenderer());
+    }
+
+    @Override
+    protected int charWidth(char c) {
+        return GlyphWidths.INSTANCE.getCharWidth(getRenderer(), c);
+    }
+
+    @Override
+    public int getStringWidth(String text) {
+        if (rendererMeasuresCodes())
+            return getRenderer().getStringWidth(text);
+        return super.getStringWidth(text);
+    }
+
+    /**
+     * With HexText only the renderer knows what its codes do to the width,
+     * but between codes the glyphs just add up. Each run of text outside the
+     * codes is measured from glyph widths, with the renderer asked only for
+     * the prefixes that end inside a code and for the end of each run, which
+     * tells whether the run is bold.
+     */
+    @Override
+    public int measurePrefixes(CharSequence text, int[] out) {
+        if (!rendererMeasuresCodes())
+            return super.measurePrefixes(text, out);
+        FontRenderer renderer = getRenderer();
+        String str = text.toString();
+        int length = str.length();
+        CodeSpans spans = CodeSpans.of(str, BookController.getInstance().getTextFormatter());
+        prepare();
+        // Code characters, and a section sign left over at the end, which has
+        // no width of its own, are measured by the renderer
+        boolean[] measured = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            int codeLength = spans.codeLengthAt(i);
+            for (int j = i; j < i + codeLength && j < length; j++)
+                measured[j] = true;
+            if (charWidth(str.charAt(i)) < 0)
+                measured[i] = true;
+        }
+        out[0] = 0;
+        int pos = 0;
+        while (pos < length) {
+            if (measured[pos]) {
+                pos++;
+                out[pos] = renderer.getStringWidth(str.substring(0, pos));
+                continue;
+            }
+            int runStart = pos;
+            int glyphs = 0;
+            int visible = 0;
+            for (; pos < length && !measured[pos]; pos++) {
+                int glyphWidth = charWidth(str.charAt(pos));
+                glyphs += glyphWidth;
+                if (glyphWidth > 0)
+                    visible++;
+                out[pos + 1] = glyphs;
+            }
+            int width = renderer.getStringWidth(str.substring(0, pos));
+            int extra = width - out[runStart] - glyphs;
+            if (extra != 0 && extra != visible) {
+                // Widths that do not add up are measured prefix by prefix
+                for (int i = runStart + 1; i < pos; i++)
+                    out[i] = renderer.getStringWidth(str.substring(0, i));
+                out[pos] = width;
+                continue;
+            }
+            // Bold runs widen every visible glyph by a pixel
+            boolean bold = extra != 0;
+            visible = 0;
+            for (int i = runStart; i < pos; i++) {
+                if (bold && charWidth(str.charAt(i)) > 0)
+                    visible++;
+                out[i + 1] += out[runStart] + visible;
+            }
+        }
+        return out[length];
+    }
+
+    @Override
+    public int sizeStringToWidth(String text, int maxWidth) {
+        return FontRendererPrivate.callSizeStringToWidth(getRenderer(), text, maxWidth);
+    }
+
+    private static boolean rendererMeasuresCodes() {
+        return BookController.getInstance().isHexTextLoaded();
+    }
+}
@@ -0,0 +1,176 @@
+package kamkeel.plugeditor.book;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import kamkeel.plugeditor.benchmark.HeadlessFonts;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A book whose pages are held as text until they are visited must end up
+ * laid out the same as one laid out page by page while it loads, the way
+ * the loaders used to. Each test runs the same steps on a book loaded both
+ * ways, then compares the lines of every page and the text store.
+ */
+public class LazyLayoutTest {
+    private static final String[] WORDS = {
+        "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "Minecraft", "book", "quill",
+        "WWW", "illicit", "\u00a7cred\u00a7r", "\u00a7lbold\u00a7r", "\u00a79blue"
+    };
+
+    private List<String> pages;
+
+    @Before
+    public void setUp() {
+        HeadlessFonts.install();
+        this.pages = pageTexts(6, 42L);
+    }
+
+    @Test
+    public void visitInOrder() {
+        assertSameLayout(this.pages, new Steps() {
+            @Override
+            public void run(Book book) {
+                for (int i = 0; i < book.totalPages(); i++)
+                    book.getPage(i);
+            }
+        });
+    }
+
+    @Test
+    public void visitInReverse() {
+        assertSameLayout(this.pages, new Steps() {
+            @Override
+            public void run(Book book) {
+                for (int i = book.totalPages() - 1; i >= 0; i--)
+                    book.getPage(i);
+            }
+        });
+    }
+
+    @Test
+    public void removingPaddingPullsTextOutOfHeldPages() {
+        List<String> shortPages = new ArrayList<String>(this.pages);
+        shortPages.set(0, "A short page");
+        shortPages.set(1, "and another");
+        assertSameLayout(shortPages, new Steps() {
+            @Override
+            public void run(Book book) {
+                // Leaves room on the first page for the short held page after
+                // it and the start of the page after that
+                book.getPage(0);
+                book.cursorPage = 0;
+                book.cursorLine = BookLayout.MAX_LINES_PER_PAGE - 1;
+                book.cursorPosChars = 0;
+                book.removeChar(false);
+            }
+        });
+    }
+
+    @Test
+    public void typeIntoHeldPage() {
+        assertSameLayout(this.pages, new Steps() {
+            @Override
+            public void run(Book book) {
+                book.addText(2, 1, 3, "a few more words to push lines on ", true);
+            }
+        });
+    }
+
+    @Test
+    public void removeTextAcrossHeldPages() {
+        assertSameLayout(this.pages, new Steps() {
+            @Override
+            public void run(Book book) {
+                book.removeText(1, 2, 1, 3, 1, 2);
+            }
+        });
+    }
+
+    @Test
+    public void addPageAfterLongHeldLastPage() {
+        List<String> longLastPage = new ArrayList<String>(this.pages.subList(0, 2));
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 20; i++)
+            lines.append("line ").append(i).append('\n');
+        longLastPage.add(lines.toString());
+        assertSameLayout(longLastPage, new Steps() {
+            @Override
+            public void run(Book book) {
+                book.addPage();
+                book.cursorPage = book.totalPages() - 1;
+                book.cursorLine = 0;
+                book.cursorPosChars = 0;
+                book.addTextAtCursor("hello");
+            }
+        });
+    }
+
+    private static void assertSameLayout(List<String> pageTexts, Steps steps) {
+        Book lazy = new Book();
+        lazy.clear();
+        for (String text : pageTexts)
+            lazy.appendPage(text);
+        Book eager = loadEager(pageTexts);
+        steps.run(lazy);
+        steps.run(eager);
+
+        assertEquals(layout(eager), layout(lazy));
+        assertEquals(eager.getText().toString(), lazy.getText().toString());
+    }
+
+    /**
+     * Loads the pages the way the loaders did before pages were held as
+     * text: each page is padded before the next is added and laid out.
+     */
+    private static Book loadEager(List<String> pageTexts) {
+        Book book = new Book();
+        book.clear();
+        for (String text : pageTexts) {
+            int lastPage = book.totalPages() - 1;
+            if (lastPage >= 0 && !book.pages.get(lastPage).asString().isEmpty())
+                book.padPage(lastPage);
+            book.addText(book.getText().length(), text, true);
+        }
+        return book;
+    }
+
+    /**
+     * Every line of every page with its formatting, laying the pages out.
+     */
+    private static String layout(Book book) {
+        StringBuilder layout = new StringBuilder();
+        for (int i = 0; i < book.totalPages(); i++) {
+            layout.append("Page ").append(i).append('\n');
+            for (Line line : book.getPage(i).lines)
+                layout.append(line.getFormatting()).append(": ").append(line.text.replace("\n", "\\n")).append('\n');
+        }
+        return layout.toString();
+    }
+
+    /**
+     * Pages that fit a page by both the line and character limits.
+     */
+    private static List<String> pageTexts(int pages, long seed) {
+        Random random = new Random(seed);
+        List<String> texts = new ArrayList<String>(pages);
+        for (int i = 0; i < pages; i++) {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 180) {
+                if (text.length() > 0)
+                    text.append(random.nextInt(8) == 0 ? '\n' : ' ');
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            texts.add(text.toString());
+        }
+        return texts;
+    }
+
+    private interface Steps {
+        void run(Book book);
+    }
+}
@@ -0,0 +1,158 @@
+package kamkeel.plugeditor.book;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The offset index must map between offsets and (page, line) the same way a
+ * linear scan over the pages does, through every way the index follows the
+ * pages: rebuilding, updating a page in place and resizing at the end.
+ */
+public class OffsetIndexTest {
+    @Test
+    public void rebuild() {
+        Random random = new Random(42L);
+        for (int round = 0; round < 50; round++) {
+            List<Page> pages = randomPages(random, random.nextInt(40));
+            OffsetIndex index = new OffsetIndex();
+            index.rebuild(pages);
+            assertMatchesScan(pages, index);
+        }
+    }
+
+    @Test
+    public void updatePagesInPlace() {
+        Random random = new Random(43L);
+        List<Page> pages = randomPages(random, 37);
+        OffsetIndex index = new OffsetIndex();
+        index.rebuild(pages);
+        for (int i = 0; i < 500; i++) {
+            int pageNum = random.nextInt(pages.size());
+            pages.set(pageNum, randomPage(random));
+            index.update(pageNum, pages.get(pageNum));
+            assertMatchesScan(pages, index);
+        }
+    }
+
+    @Test
+    public void resizeAtTheEnd() {
+        Random random = new Random(44L);
+        List<Page> pages = new ArrayList<Page>();
+        OffsetIndex index = new OffsetIndex();
+        index.rebuild(pages);
+        for (int i = 0; i < 1000; i++) {
+            int change = random.nextInt(4);
+            if (change < 2 || pages.isEmpty()) {
+                // Appending one at a time grows the arrays past their capacity
+                pages.add(randomPage(random));
+            } else if (change == 2) {
+                int keep = random.nextInt(pages.size());
+                while (pages.size() > keep)
+                    pages.remove(pages.size() - 1);
+            } else {
+                int pageNum = random.nextInt(pages.size());
+                pages.set(pageNum, randomPage(random));
+                index.update(pageNum, pages.get(pageNum));
+            }
+            index.resize(pages);
+            assertMatchesScan(pages, index);
+        }
+    }
+
+    @Test
+    public void validity() {
+        List<Page> pages = randomPages(new Random(45L), 3);
+        OffsetIndex index = new OffsetIndex();
+        assertFalse(index.isValid());
+        index.rebuild(pages);
+        assertTrue(index.isValidFor(pages));
+        pages.add(new Page());
+        assertFalse(index.isValidFor(pages));
+        index.resize(pages);
+        assertTrue(index.isValidFor(pages));
+        index.invalidate();
+        assertFalse(index.isValidFor(pages));
+    }
+
+    private static void assertMatchesScan(List<Page> pages, OffsetIndex index) {
+        assertEquals(pages.size(), index.size());
+        int offset = 0;
+        for (int pageNum = 0; pageNum < pages.size(); pageNum++) {
+            assertEquals("Start of page " + pageNum, offset, index.pageStart(pageNum));
+            List<Line> lines = pages.get(pageNum).lines;
+            for (int lineNum = 0; lineNum < lines.size(); lineNum++) {
+                assertEquals("Start of line " + lineNum + " of page " + pageNum, offset, index.lineStart(pageNum, lineNum));
+                offset += lines.get(lineNum).text.length();
+            }
+        }
+        assertEquals(offset, index.pageStart(pages.size()));
+
+        for (int at = 0; at <= offset + 1; at++) {
+            int pageNum = scanPageAt(pages, at);
+            assertEquals("Page at " + at, pageNum, index.pageAt(at));
+            if (!pages.isEmpty()) {
+                int pageOffset = at - index.pageStart(pageNum);
+                assertEquals("Line at " + at, scanLineAt(pages.get(pageNum), pageOffset), index.lineAt(pageNum, pageOffset));
+            }
+        }
+    }
+
+    /**
+     * The first page ending at or after the offset, so an offset on a page
+     * boundary belongs to the earlier page.
+     */
+    private static int scanPageAt(List<Page> pages, int offset) {
+        int end = 0;
+        for (int pageNum = 0; pageNum < pages.size(); pageNum++) {
+            end += pages.get(pageNum).charCount();
+            if (offset <= end)
+                return pageNum;
+        }
+        return Math.max(pages.size() - 1, 0);
+    }
+
+    private static int scanLineAt(Page page, int pageOffset) {
+        int end = 0;
+        for (int lineNum = 0; lineNum < page.lines.size(); lineNum++) {
+            end += page.lines.get(lineNum).text.length();
+            if (pageOffset <= end)
+                return lineNum;
+        }
+        return page.lines.size() - 1;
+    }
+
+    private static List<Page> randomPages(Random random, int count) {
+        List<Page> pages = new ArrayList<Page>(count);
+        for (int i = 0; i < count; i++)
+            pages.add(randomPage(random));
+        return pages;
+    }
+
+    /**
+     * A page of up to a full page of lines, some of them empty, so pages and
+     * lines of no characters are covered too.
+     */
+    private static Page randomPage(Random random) {
+        Page page = new Page();
+        page.lines.clear();
+        int lineCount = 1 + random.nextInt(BookLayout.MAX_LINES_PER_PAGE);
+        for (int i = 0; i < lineCount; i++) {
+            Line line = new Line();
+            int length = random.nextInt(4) == 0 ? 0 : random.nextInt(20);
+            StringBuilder text = new StringBuilder(length);
+            for (int j = 0; j < length; j++)
+                text.append((char) ('a' + random.nextInt(26)));
+            line.text = text.toString();
+            page.lines.add(line);
+        }
+        page.markDirty();
+        return page;
+    }
+}
@@ -0,0 +1,160 @@
+package kamkeel.plugeditor.book;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The piece table must always hold the same text as a StringBuilder given
+ * the same edits, however its pieces are split, merged and compacted.
+ */
+public class PieceTableTest {
+    private static final String ALPHABET = "abcdefghij \n\u00a7";
+
+    @Test
+    public void randomEditsMatchStringBuilder() {
+        Random random = new Random(42L);
+        for (int round = 0; round < 20; round++) {
+            StringBuilder model = new StringBuilder(randomText(random, random.nextInt(200)));
+            PieceTable table = new PieceTable(model);
+            for (int edit = 0; edit < 500; edit++) {
+                if (model.length() == 0 || random.nextInt(5) < 3) {
+                    int offset = random.nextInt(model.length() + 1);
+                    String text = randomText(random, 1 + random.nextInt(20));
+                    model.insert(offset, text);
+                    table.insert(offset, text);
+                } else {
+                    int start = random.nextInt(model.length());
+                    int end = start + random.nextInt(Math.min(model.length() - start, 40) + 1);
+                    model.delete(start, end);
+                    table.delete(start, end);
+                }
+                assertSameText(model, table, random);
+            }
+        }
+    }
+
+    @Test
+    public void typingExtendsOnePiece() {
+        StringBuilder model = new StringBuilder("Some text to type into");
+        PieceTable table = new PieceTable(model);
+        Random random = new Random(7L);
+        int cursor = 5;
+        for (int i = 0; i < 1000; i++) {
+            String key = String.valueOf(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            model.insert(cursor, key);
+            table.insert(cursor, key);
+            cursor++;
+            // Backspace now and then, then carry on typing
+            if (random.nextInt(10) == 0) {
+                cursor--;
+                model.deleteCharAt(cursor);
+                table.delete(cursor, cursor + 1);
+            }
+            // And move the cursor, which starts a new piece
+            if (random.nextInt(100) == 0)
+                cursor = random.nextInt(model.length() + 1);
+        }
+        assertSameText(model, table, random);
+    }
+
+    @Test
+    public void compactsAfterLargeDeletes() {
+        Random random = new Random(3L);
+        StringBuilder model = new StringBuilder();
+        PieceTable table = new PieceTable();
+        // Enough text through the add buffer to pass the compaction threshold
+        for (int i = 0; i < 200; i++) {
+            String text = randomText(random, 500);
+            int offset = random.nextInt(model.length() + 1);
+            model.insert(offset, text);
+            table.insert(offset, text);
+            if (model.length() > 1000) {
+                int start = random.nextInt(model.length() - 900);
+                model.delete(start, start + 900);
+                table.delete(start, start + 900);
+            }
+        }
+        assertSameText(model, table, random);
+        // Edits after compacting go through a fresh add buffer
+        table.insert(0, "after");
+        model.insert(0, "after");
+        table.delete(model.length() - 3, model.length());
+        model.delete(model.length() - 3, model.length());
+        assertSameText(model, table, random);
+    }
+
+    @Test
+    public void deleteEverything() {
+        PieceTable table = new PieceTable("text");
+        table.insert(2, "more");
+        table.delete(0, table.length());
+        assertTrue(table.isEmpty());
+        assertEquals("", table.toString());
+        table.insert(0, "again");
+        assertEquals("again", table.toString());
+        table.clear();
+        assertEquals(0, table.length());
+    }
+
+    @Test
+    public void rangesAreChecked() {
+        PieceTable table = new PieceTable("0123456789");
+        assertOutOfBounds(table, -1, 2);
+        assertOutOfBounds(table, 5, 11);
+        assertOutOfBounds(table, 6, 5);
+        try {
+            table.insert(11, "x");
+            fail("Inserted past the end");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        try {
+            table.charAt(10);
+            fail("Read past the end");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    private static void assertOutOfBounds(PieceTable table, int start, int end) {
+        try {
+            table.delete(start, end);
+            fail("Deleted [" + start + ", " + end + ")");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        try {
+            table.substring(start, end);
+            fail("Read [" + start + ", " + end + ")");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    private static void assertSameText(StringBuilder model, PieceTable table, Random random) {
+        assertEquals(model.length(), table.length());
+        assertEquals(model.toString(), table.toString());
+        for (int i = 0; i < 10 && model.length() > 0; i++) {
+            int index = random.nextInt(model.length());
+            assertEquals(model.charAt(index), table.charAt(index));
+            int start = random.nextInt(model.length() + 1);
+            int end = start + random.nextInt(model.length() - start + 1);
+            assertEquals(model.substring(start, end), table.substring(start, end));
+            StringBuilder out = new StringBuilder("prefix");
+            table.appendTo(out, start, end);
+            assertEquals("prefix" + model.substring(start, end), out.toString());
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        return text.toString();
+    }
+}
@@ -0,0 +1,171 @@
+package kamkeel.plugeditor.gui;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import kamkeel.plugeditor.FileHandler;
+import kamkeel.plugeditor.benchmark.BenchmarkBooks;
+import kamkeel.plugeditor.benchmark.HeadlessFonts;
+import kamkeel.plugeditor.book.Book;
+import kamkeel.plugeditor.storage.DirectoryEntry;
+import net.minecraft.client.gui.FontRenderer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A steady frame of the editor GUIs must allocate nothing. drawScreen also
+ * binds textures and draws quads, which needs a GL context, so each frame
+ * here does the text work of drawScreen through the same models against a
+ * headless renderer.
+ */
+public class FrameAllocationTest {
+    private static final int WARMUP_FRAMES = 20000;
+
+    private static final int FRAMES = 10000;
+
+    // The JIT can still allocate while it swaps compiled code in after the
+    // warmup, so frames are measured in rounds until one is steady
+    private static final int MAX_ROUNDS = 10;
+
+    // Keeps the drawn results alive so the frames are not optimized away
+    private static int sink;
+
+    private FontRenderer renderer;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        HeadlessFonts.install();
+        this.renderer = HeadlessFonts.renderer();
+        this.directory = File.createTempFile("plugbook", "");
+        if (!this.directory.delete() || !this.directory.mkdirs())
+            throw new IOException("Cannot create " + this.directory);
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(this.directory);
+    }
+
+    @Test
+    public void bookFrameAllocatesNothing() {
+        assertEquals("Bytes allocated by " + FRAMES + " GuiPlugBook frames", 0L, steadyAllocation(new BookFrame(this.renderer)));
+    }
+
+    @Test
+    public void fileBrowserFrameAllocatesNothing() throws IOException, InterruptedException {
+        assertEquals("Bytes allocated by " + FRAMES + " GuiFileBrowser frames", 0L, steadyAllocation(new FileBrowserFrame(this.renderer, this.directory)));
+    }
+
+    /**
+     * Bytes allocated by the least allocating round of frames after the
+     * warmup. A frame that allocates makes every round allocate.
+     */
+    private static long steadyAllocation(Runnable frame) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP_FRAMES; i++)
+            frame.run();
+
+        // Reading the counter may allocate itself, which is not the frame's
+        long overhead = threads.getThreadAllocatedBytes(threadId);
+        overhead = threads.getThreadAllocatedBytes(threadId) - overhead;
+        long least = Long.MAX_VALUE;
+        for (int round = 0; round < MAX_ROUNDS && least > 0; round++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < FRAMES; i++)
+                frame.run();
+            least = Math.min(least, threads.getThreadAllocatedBytes(threadId) - before - overhead);
+        }
+        return least;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteRecursively(child);
+        }
+        file.delete();
+    }
+
+    /**
+     * GuiPlugBook showing a page of a writable book with a page range
+     * selected and pages on the clipboard.
+     */
+    private static final class BookFrame implements Runnable {
+        private final FontRenderer renderer;
+
+        private final Book book = BenchmarkBooks.create(20, 42L);
+
+        private final List<String> pageClipboard = new ArrayList<String>(Arrays.asList("one", "two", "three"));
+
+        private final PageRenderModel renderModel = new PageRenderModel();
+
+        private final PageButtonLabels buttonLabels = new PageButtonLabels();
+
+        BookFrame(FontRenderer renderer) {
+            this.renderer = renderer;
+            this.book.cursorPage = 3;
+            this.book.cursorLine = 2;
+            this.book.cursorPosChars = 5;
+        }
+
+        @Override
+        public void run() {
+            this.buttonLabels.update(this.pageClipboard.size(), 1, 4);
+            sink += this.buttonLabels.getPasteLabel().length() + this.buttonLabels.getCopyLabel().length();
+            this.book.getCurrPageAsMCString();
+            this.renderModel.update(this.renderer, this.book.pages.get(this.book.cursorPage), this.book.cursorPage, this.book.totalPages());
+            this.renderModel.drawText(36, 34);
+            this.renderModel.drawPageIndicator(148, 18);
+            sink += this.book.getCursorX();
+        }
+    }
+
+    /**
+     * GuiFileBrowser listing a directory with a book selected for preview.
+     */
+    private static final class FileBrowserFrame implements Runnable {
+        private final FontRenderer renderer;
+
+        private final FileBrowserModel model;
+
+        FileBrowserFrame(FontRenderer renderer, File directory) throws IOException, InterruptedException {
+            this.renderer = renderer;
+            FileHandler fileHandler = new FileHandler(directory);
+            File book = new File(directory, "frames.ghb");
+            if (!fileHandler.writeFile(Arrays.asList("title:Frames", "author:PlugEditor", "A short first page to preview##"), book))
+                throw new IOException("Cannot write " + book);
+            fileHandler.currentPath = directory;
+            this.model = new FileBrowserModel(fileHandler);
+            this.model.requestPreview(new DirectoryEntry(book, false, book.length(), book.lastModified()));
+            // Listing and preview both load in the background
+            while (fileHandler.listFiles(directory).isLoading() || this.model.isPreviewLoading()) {
+                this.model.update();
+                Thread.sleep(1L);
+            }
+        }
+
+        @Override
+        public void run() {
+            this.model.update();
+            sink += this.renderer.drawStringWithShadow(this.model.getPathLabel(), 100, 20, 14540253);
+            for (int i = 0; i <= this.model.getEntries().size(); i++)
+                sink += this.renderer.drawString(this.model.getSlotLabel(i), 2, 33 + 12 * i, this.model.getSlotColor(i));
+            if (this.model.hasPreview()) {
+                sink += this.renderer.drawStringWithShadow(this.model.getPreviewAuthor(), 100, 190, 16777215);
+                sink += this.renderer.drawStringWithShadow(this.model.getPreviewTitle(), 100, 200, 16777215);
+                sink += this.renderer.drawStringWithShadow(this.model.getPreviewPage(), 100, 210, 16777215);
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package kamkeel.plugeditor.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import kamkeel.plugeditor.benchmark.HeadlessFonts;
+import kamkeel.plugeditor.book.Book;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Replaying an edit journal onto its checkpoint must rebuild the book the
+ * edits were made to, and a journal damaged by a crash must replay only the
+ * records written whole before the damage.
+ */
+public class EditJournalTest {
+    private File file;
+
+    private EditJournal journal;
+
+    private Book book;
+
+    @Before
+    public void setUp() throws IOException {
+        HeadlessFonts.install();
+        this.file = File.createTempFile("plugbook", ".journal");
+        this.journal = EditJournal.open(this.file);
+        this.book = new Book();
+        this.book.clear();
+        this.book.appendPage("The first page of the book, held as text until it is visited.");
+        this.book.appendPage("The second page.");
+        this.book.appendPage("The third and last page.");
+        this.journal.start(this.book);
+        // The first edit writes the checkpoint
+        this.book.addText(0, "A ", true);
+        this.journal.flush();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.journal.finish();
+        this.journal.written().get();
+        this.file.delete();
+    }
+
+    @Test
+    public void insertText() throws Exception {
+        this.book.addText(10, "inserted ", true);
+        assertReplays();
+    }
+
+    @Test
+    public void removeText() throws Exception {
+        this.book.removeText(4, 20);
+        assertReplays();
+    }
+
+    @Test
+    public void insertPages() throws Exception {
+        this.book.insertPages(1, Arrays.asList("New page", "Another new page"));
+        assertReplays();
+    }
+
+    @Test
+    public void cutPages() throws Exception {
+        this.book.cutPages(1, 2);
+        assertReplays();
+    }
+
+    @Test
+    public void removePage() throws Exception {
+        this.book.removePage(1);
+        assertReplays();
+    }
+
+    @Test
+    public void addPage() throws Exception {
+        this.book.addPage();
+        assertReplays();
+    }
+
+    @Test
+    public void titleAndAuthor() throws Exception {
+        this.book.title = "Title";
+        this.book.author = "Author";
+        assertReplays();
+    }
+
+    @Test
+    public void layOutPage() throws Exception {
+        this.book.getPage(2);
+        // Laying out a page alone is only written along with an edit
+        this.book.addText(0, "B", true);
+        assertReplays();
+    }
+
+    @Test
+    public void tornLastRecordIsIgnored() throws Exception {
+        this.book.addText(5, "kept ", true);
+        this.journal.flush();
+        String kept = describe(BookSnapshot.of(this.book));
+        this.book.addText(5, "torn ", true);
+        this.journal.flush();
+        this.journal.written().get();
+
+        byte[] bytes = Files.readAllBytes(this.file.toPath());
+        for (int cut = 1; cut < 12; cut++) {
+            save(Arrays.copyOf(bytes, bytes.length - cut));
+            assertEquals(kept, describe(EditJournal.read(this.file)));
+        }
+    }
+
+    @Test
+    public void checksumMismatchStopsReplay() throws Exception {
+        this.journal.written().get();
+        String beforeDamage = describe(BookSnapshot.of(this.book));
+        int damagedRecord = (int) this.file.length();
+        this.book.addText(5, "damaged ", true);
+        this.journal.flush();
+        this.book.addText(5, "after ", true);
+        this.journal.flush();
+        this.journal.written().get();
+
+        byte[] bytes = Files.readAllBytes(this.file.toPath());
+        // Past the length and checksum, into the edit itself
+        bytes[damagedRecord + 10] ^= 1;
+        save(bytes);
+        assertEquals(beforeDamage, describe(EditJournal.read(this.file)));
+    }
+
+    @Test
+    public void versionOneJournalLoads() throws Exception {
+        ByteArrayOutputStream checkpoint = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(checkpoint);
+        out.writeByte(1);
+        writeString(out, "Old");
+        writeString(out, "Journal");
+        out.writeInt(2);
+        // Version 1 has every page laid out
+        out.writeInt(1);
+        writeString(out, "First page");
+        out.writeInt(1);
+        writeString(out, "Second page");
+        ByteArrayOutputStream edit = new ByteArrayOutputStream();
+        out = new DataOutputStream(edit);
+        out.writeByte(2);
+        out.writeInt(6);
+        writeString(out, "old ");
+
+        ByteArrayOutputStream journalBytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(journalBytes);
+        out.writeInt(0x50424A4C);
+        out.writeInt(1);
+        writeRecord(out, checkpoint.toByteArray());
+        writeRecord(out, edit.toByteArray());
+        save(journalBytes.toByteArray());
+
+        List<String[]> pages = new ArrayList<String[]>();
+        pages.add(new String[] { "First page" });
+        pages.add(new String[] { "Second page" });
+        Book expected = BookSnapshot.of("Old", "Journal", pages, new boolean[] { true, true }).toBook();
+        expected.addText(6, "old ", true);
+        BookSnapshot read = EditJournal.read(this.file);
+        assertEquals(describe(BookSnapshot.of(expected)), describe(read));
+        assertTrue(read.getPageText(0).startsWith("First old page"));
+    }
+
+    @Test
+    public void compactsAfterEnoughEdits() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 4096)
+            text.append("Text typed and deleted again ");
+        long largest = 0;
+        for (int written = 0; this.file.length() >= largest; written += text.length()) {
+            assertTrue("Journal compacted within " + written + " bytes of edits", written < 2 * EditJournal.COMPACT_AFTER_BYTES);
+            largest = this.file.length();
+            this.book.addText(0, text.toString(), true);
+            this.book.removeText(0, text.length());
+            this.journal.flush();
+            this.journal.written().get();
+        }
+        assertTrue("Journal of " + largest + " bytes before compacting", largest >= EditJournal.COMPACT_AFTER_BYTES);
+        assertTrue("Journal of " + this.file.length() + " bytes after compacting", this.file.length() < text.length());
+        assertEquals(describe(BookSnapshot.of(this.book)), describe(EditJournal.read(this.file)));
+    }
+
+    /**
+     * Flushes the edits and checks that replaying the journal gives the book
+     * as it is now.
+     */
+    private void assertReplays() throws Exception {
+        this.journal.flush();
+        this.journal.written().get();
+        assertEquals(describe(BookSnapshot.of(this.book)), describe(EditJournal.read(this.file)));
+    }
+
+    /**
+     * The title, author and every line of every page, and which pages are
+     * laid out.
+     */
+    private static String describe(BookSnapshot snapshot) {
+        StringBuilder description = new StringBuilder();
+        description.append(snapshot.getTitle()).append('|').append(snapshot.getAuthor());
+        for (int i = 0; i < snapshot.getPageCount(); i++) {
+            description.append("\nPage ").append(i).append(snapshot.isLaidOut(i) ? "" : " held");
+            for (String line : snapshot.getLines(i))
+                description.append("\n  ").append(line.replace("\n", "\\n"));
+        }
+        return description.toString();
+    }
+
+    private void save(byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(this.file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        out.writeInt(record.length);
+        out.writeInt((int) crc.getValue());
+        out.write(record);
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,189 @@
+package kamkeel.plugeditor.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import kamkeel.plugeditor.benchmark.HeadlessFonts;
+import kamkeel.plugeditor.book.Book;
+import kamkeel.plugeditor.book.Page;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * GHBReader must load books the way the regex loader it replaced did, apart
+ * from the one deliberate difference in block comments at the start of a
+ * file. The old loader is kept here to compare the two on random files.
+ */
+public class GHBReaderTest {
+    private static final String[] TOKENS = {
+        "/", "*", "#", ">", " ", "\t", "a", "word ", "\u00c2", "\u00a7", "\u00a7c", "##", ">>>>", "/*", "*/", "//", "x"
+    };
+
+    @Before
+    public void setUp() {
+        HeadlessFonts.install();
+    }
+
+    @Test
+    public void markersBecomeLinesAndPages() throws IOException {
+        assertEquals("||2\n[first\nline]\n[second]", text(read("first ##\nline>>>>\nsecond\n")));
+    }
+
+    @Test
+    public void slashAfterBlockCommentEndStartsLineComment() throws IOException {
+        // The "//" of "*//" comments out the rest of the line, so the block
+        // comment only ends on the next line
+        assertEquals("||1\n[ac]", text(read("a/* x *// y\nb */c\n")));
+    }
+
+    @Test
+    public void headerLineOpensBlockComment() throws IOException {
+        Book book = read("title: Short /* hidden\nstill hidden */text\nauthor: Someone\n");
+        assertEquals("Short", book.title);
+        assertEquals("Someone", book.author);
+        assertEquals("Short|Someone|1\n[text]", text(book));
+    }
+
+    @Test
+    public void misreadSectionSignIsFixed() throws IOException {
+        assertEquals("||1\n[\u00a7cred \u00a7lbold]", text(read("\u00c2\u00a7cred \u00c2\u00a7lbold\n")));
+    }
+
+    @Test
+    public void trailingEmptyPagesAreDropped() throws IOException {
+        assertEquals("||2\n[a]\n[b]", text(read("a>>>>b>>>>>>>>\n>>>>\n")));
+    }
+
+    @Test
+    public void emptyReaderHasNoBook() throws IOException {
+        assertNull(GHBReader.read(new StringReader("")));
+    }
+
+    @Test
+    public void textBeforeFirstBlockCommentEndIsKept() throws IOException {
+        // The old regex deleted everything from the start of the file up to
+        // the first */, which the reader does not do
+        assertEquals("||1\n[kept*/ too]", text(read("kept*/ too\n")));
+        assertEquals("||1\n[ too]", text(readWithRegexes(lines("kept*/ too"), true)));
+    }
+
+    @Test
+    public void matchesRegexLoader() throws IOException {
+        Random random = new Random(42L);
+        for (int i = 0; i < 2000; i++) {
+            List<String> lines = new ArrayList<String>();
+            int lineCount = random.nextInt(6);
+            for (int j = 0; j < lineCount; j++) {
+                StringBuilder line = new StringBuilder();
+                if (random.nextInt(4) == 0)
+                    line.append(random.nextBoolean() ? "title:" : "Author:");
+                int tokens = random.nextInt(12);
+                for (int k = 0; k < tokens; k++)
+                    line.append(TOKENS[random.nextInt(TOKENS.length)]);
+                lines.add(line.toString());
+            }
+            StringBuilder file = new StringBuilder();
+            for (String line : lines)
+                file.append(line).append(random.nextInt(4) == 0 ? "\r\n" : "\n");
+
+            assertEquals("Loading " + lines, dump(readWithRegexes(lines, false)), dump(read(file.toString())));
+        }
+    }
+
+    private static Book read(String file) throws IOException {
+        return GHBReader.read(new StringReader(file));
+    }
+
+    private static List<String> lines(String... lines) {
+        List<String> list = new ArrayList<String>();
+        for (String line : lines)
+            list.add(line);
+        return list;
+    }
+
+    /**
+     * The title, author and the text of every page without the newlines
+     * that pad it.
+     */
+    private static String text(Book book) {
+        return dump(book).replaceAll("\n+]", "]");
+    }
+
+    /**
+     * The title, author and the text of every page, laying the pages out.
+     */
+    private static String dump(Book book) {
+        if (book == null)
+            return "null";
+        StringBuilder dump = new StringBuilder();
+        dump.append(book.title).append('|').append(book.author).append('|').append(book.totalPages());
+        for (int i = 0; i < book.totalPages(); i++) {
+            Page page = book.getPage(i);
+            dump.append("\n[").append(page.asString()).append(']');
+        }
+        return dump.toString();
+    }
+
+    /**
+     * The loader GHBReader replaced, which concatenated the file and ran
+     * regexes over it. Without startOfFileClause its block comment regex
+     * leaves out the \A...*\/ alternative, which the reader does not keep.
+     */
+    private static Book readWithRegexes(List<String> rawFile, boolean startOfFileClause) {
+        if (rawFile.isEmpty())
+            return null;
+        Book loadedBook = new Book();
+        loadedBook.clear();
+        String concatFile = "";
+        for (String rawLine : rawFile) {
+            String line = rawLine.replace("\u00c2\u00a7", "\u00a7");
+            if (line.toLowerCase().startsWith("title:") && loadedBook.title.isEmpty()) {
+                if (line.length() >= 7) {
+                    loadedBook.title = Book.truncateStringChars(cleanWithRegexes(line.substring(6), startOfFileClause).trim(), "..", 16, false);
+                    if (line.contains("/*"))
+                        concatFile = concatFile + line.substring(line.indexOf("/*")) + "\n";
+                }
+                continue;
+            }
+            if (line.toLowerCase().startsWith("author:") && loadedBook.author.isEmpty()) {
+                if (line.length() >= 8) {
+                    loadedBook.author = Book.truncateStringChars(cleanWithRegexes(line.substring(7), startOfFileClause).trim(), "..", 16, false);
+                    if (line.contains("/*"))
+                        concatFile = concatFile + line.substring(line.indexOf("/*")) + "\n";
+                }
+                continue;
+            }
+            concatFile = concatFile + line + "\n";
+        }
+        concatFile = cleanWithRegexes(concatFile, startOfFileClause);
+        concatFile = concatFile.replaceAll("##", "\n");
+        String[] pageBroken = concatFile.split(">>>>");
+        for (String largePage : pageBroken) {
+            if (loadedBook.totalPages() > 0) {
+                Page currPage = loadedBook.pages.get(loadedBook.totalPages() - 1);
+                if (!currPage.asString().isEmpty())
+                    loadedBook.padPage(loadedBook.totalPages() - 1);
+            }
+            loadedBook.addText(loadedBook.totalPages(), 0, 0, largePage, true);
+        }
+        return loadedBook;
+    }
+
+    private static String cleanWithRegexes(String strIn, boolean startOfFileClause) {
+        strIn = strIn.replaceAll("(?s)//.*?((\\n)|(\\r\\n)|(\\Z))", "\n");
+        if (startOfFileClause) {
+            strIn = strIn.replaceAll("(?s)((/\\*).*?((\\*/)|(\\Z)))|(((/\\*)|(\\A)).*?(\\*/))", "");
+        } else {
+            strIn = strIn.replaceAll("(?s)((/\\*).*?((\\*/)|(\\Z)))|((/\\*).*?(\\*/))", "");
+        }
+        strIn = strIn.replaceAll("[\\t\\r\\n ]+(##|>>>>)", "$1");
+        strIn = strIn.replaceAll("[\\r\\n]", "");
+        return strIn;
+    }
+}
@@ -0,0 +1,157 @@
+package kamkeel.plugeditor.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import kamkeel.plugeditor.benchmark.BenchmarkBooks;
+import kamkeel.plugeditor.benchmark.HeadlessFonts;
+import kamkeel.plugeditor.book.Book;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * PBK files must read back the pages they were written with, and a damaged
+ * file must only ever fail with an IOException, which the loaders report.
+ */
+public class PBKFileTest {
+    private BookSnapshot snapshot;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        HeadlessFonts.install();
+        Book book = BenchmarkBooks.create(4, 42L);
+        book.title = "Round Trip";
+        book.author = "Tester";
+        this.snapshot = BookSnapshot.of(book);
+        this.file = File.createTempFile("plugbook", PBKFile.EXTENSION);
+    }
+
+    @After
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        assertReadsBack(write(this.snapshot, false));
+    }
+
+    @Test
+    public void roundTripDeflated() throws IOException {
+        byte[] deflated = write(this.snapshot, true);
+        assertTrue("Deflated file is smaller", deflated.length < write(this.snapshot, false).length);
+        assertReadsBack(deflated);
+    }
+
+    @Test
+    public void toBookHasEveryPage() throws IOException {
+        save(write(this.snapshot, true));
+        Book book = PBKFile.open(this.file).toBook();
+        assertEquals(this.snapshot.getPageCount(), book.totalPages());
+        assertEquals(this.snapshot.getTitle(), book.title);
+        assertEquals(this.snapshot.getAuthor(), book.author);
+        for (int i = 0; i < book.totalPages(); i++)
+            assertEquals(this.snapshot.getPageText(i), book.getPage(i).asString());
+    }
+
+    @Test
+    public void badMagic() throws IOException {
+        byte[] bytes = write(this.snapshot, false);
+        bytes[0] ^= 1;
+        assertOpenFails(bytes);
+    }
+
+    @Test
+    public void badVersion() throws IOException {
+        byte[] bytes = write(this.snapshot, false);
+        // The version follows the four byte magic
+        bytes[5]++;
+        assertOpenFails(bytes);
+    }
+
+    @Test
+    public void truncatedFile() throws IOException {
+        byte[] bytes = write(this.snapshot, true);
+        for (int length = 0; length < bytes.length; length++) {
+            save(Arrays.copyOf(bytes, length));
+            try {
+                readAll();
+                fail("Read a file cut to " + length + " of " + bytes.length + " bytes");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void damagedBytes() throws IOException {
+        byte[] bytes = write(this.snapshot, true);
+        for (int i = 0; i < bytes.length; i++) {
+            byte[] damaged = bytes.clone();
+            damaged[i] ^= 0x5A;
+            save(damaged);
+            try {
+                readAll();
+            } catch (IOException e) {
+                // Expected, anything but an IOException fails the test
+            }
+        }
+    }
+
+    private void assertReadsBack(byte[] bytes) throws IOException {
+        save(bytes);
+        PBKFile pbk = PBKFile.open(this.file);
+        assertEquals(this.snapshot.getTitle(), pbk.getTitle());
+        assertEquals(this.snapshot.getAuthor(), pbk.getAuthor());
+        assertEquals(this.snapshot.getPageCount(), pbk.getPageCount());
+        // Pages can be read in any order
+        for (int i = pbk.getPageCount() - 1; i >= 0; i--)
+            assertEquals(this.snapshot.getPageText(i), pbk.getPage(i));
+    }
+
+    private void assertOpenFails(byte[] bytes) {
+        save(bytes);
+        try {
+            PBKFile.open(this.file);
+            fail("Opened a damaged file");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private void readAll() throws IOException {
+        PBKFile pbk = PBKFile.open(this.file);
+        for (int i = 0; i < pbk.getPageCount(); i++)
+            pbk.getPage(i);
+    }
+
+    private void save(byte[] bytes) {
+        try {
+            OutputStream out = new FileOutputStream(this.file);
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] write(BookSnapshot snapshot, boolean compress) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PBKFile.write(snapshot, out, compress);
+        return out.toByteArray();
+    }
+}
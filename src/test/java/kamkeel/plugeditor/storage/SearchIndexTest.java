@@ -0,0 +1,101 @@
+package kamkeel.plugeditor.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Searches must find the pages holding every word of the query, and an
+ * index the book index has published must answer the same however its
+ * copies are changed afterwards.
+ */
+public class SearchIndexTest {
+    private static final File FIRST = new File("first.ghb");
+
+    private static final File SECOND = new File("second.ghb");
+
+    @Test
+    public void everyWordOnThePage() {
+        SearchIndex index = new SearchIndex();
+        index.add(FIRST, Arrays.asList("The quick brown fox", "jumps over the lazy dog", "A QUICK dog"));
+        assertEquals("first.ghb:0 first.ghb:2", describe(index.search("quick", 10)));
+        assertEquals("first.ghb:1 first.ghb:2", describe(index.search("dog", 10)));
+        assertEquals("first.ghb:2", describe(index.search("Quick, dog!", 10)));
+        assertEquals("", describe(index.search("fox dog", 10)));
+        assertEquals("", describe(index.search("  ", 10)));
+        assertEquals("first.ghb:0", describe(index.search("quick", 1)));
+    }
+
+    @Test
+    public void lastWordMatchesItsStart() {
+        SearchIndex index = new SearchIndex();
+        index.add(FIRST, Arrays.asList("bookshelf", "bookmark", "a book"));
+        assertEquals("first.ghb:0 first.ghb:1 first.ghb:2", describe(index.search("boo", 10)));
+        assertEquals("first.ghb:1", describe(index.search("bookm", 10)));
+        // Only the last word may be unfinished
+        assertEquals("", describe(index.search("boo a", 10)));
+        assertEquals("first.ghb:2", describe(index.search("book a", 10)));
+    }
+
+    @Test
+    public void copyLeavesPublishedIndexUnchanged() {
+        SearchIndex published = new SearchIndex();
+        published.add(FIRST, Arrays.asList("shared words", "only first"));
+        published.add(SECOND, Arrays.asList("shared too"));
+
+        SearchIndex changed = published.copy();
+        changed.remove(FIRST);
+        changed.add(SECOND, Arrays.asList("shared again", "second words"));
+        changed.add(FIRST, Arrays.asList("first once more"));
+
+        assertEquals("first.ghb:0 second.ghb:0", describe(published.search("shared", 10)));
+        assertEquals("first.ghb:1", describe(published.search("first", 10)));
+        assertEquals("first.ghb:0", describe(published.search("words", 10)));
+        assertEquals("second.ghb:0", describe(changed.search("shared", 10)));
+        assertEquals("first.ghb:0", describe(changed.search("first", 10)));
+        assertEquals("second.ghb:1", describe(changed.search("words", 10)));
+
+        // A copy of the copy shares the postings the copy made
+        SearchIndex again = changed.copy();
+        again.remove(SECOND);
+        assertEquals("second.ghb:0", describe(changed.search("shared", 10)));
+        assertEquals("", describe(again.search("shared", 10)));
+    }
+
+    @Test
+    public void readsBackWhatItWrote() throws IOException {
+        SearchIndex index = new SearchIndex();
+        index.add(FIRST, Arrays.asList("gone soon"));
+        index.add(SECOND, Arrays.asList("page one", "page two", "", "page four"));
+        index.add(FIRST, Arrays.asList("back again", "with pages"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.write(new DataOutputStream(bytes));
+        SearchIndex read = new SearchIndex();
+        read.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        for (String query : new String[] { "page", "gone", "back", "pages", "p", "page f" })
+            assertEquals(query, describe(index.search(query, 10)), describe(read.search(query, 10)));
+        read.remove(SECOND);
+        assertEquals("first.ghb:1", describe(read.search("page", 10)));
+    }
+
+    private static String describe(List<SearchHit> hits) {
+        StringBuilder description = new StringBuilder();
+        for (SearchHit hit : hits) {
+            if (description.length() > 0)
+                description.append(' ');
+            description.append(hit.getFile().getName()).append(':').append(hit.getPage());
+        }
+        return description.toString();
+    }
+}